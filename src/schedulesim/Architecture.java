@@ -1,6 +1,8 @@
 package schedulesim;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0 International License.
@@ -14,11 +16,34 @@ public class Architecture {
   private String name;
   private Producer producer;
   private RenderGif gif;
+  private final SimulationContext context;
   private final ArrayList<ConsumingEntity> consumingEntities;
 
+  // The tree flattened into levels (breadth first) along with a reusable
+  // stepping order for each level. Compiled when first needed after the
+  // tree changes, rather than rebuilt by the simulator every step.
+  private ConsumingEntity[][] levels;
+  private int[][] levelOrders;
+  private Consumer[][] levelConsumers;
+
+  // Empty metrics setting out the size bins given to each consumer for
+  // streaming results, null if the results come from the completed tasks
+  private TaskMetrics streamingMetrics;
+  private boolean retainCompletedTasks;
+
   public Architecture(String name){
+    this(name, new SimulationContext());
+  }
+
+  public Architecture(String name, SimulationContext context){
     this.name = name;
+    this.context = context;
     this.consumingEntities = new ArrayList<>();
+    this.levels = null;
+    this.levelOrders = null;
+    this.levelConsumers = null;
+    this.streamingMetrics = null;
+    this.retainCompletedTasks = true;
   }
   
   public String getName() {
@@ -29,6 +54,10 @@ public class Architecture {
     this.name = name;
   }
   
+  public SimulationContext getContext(){
+    return context;
+  }
+
   public void setGif(RenderGif gif){
     this.gif = gif;
   }
@@ -36,14 +65,40 @@ public class Architecture {
   public void updateGif(){
     if(gif!=null){
       gif.setArchitecture(this);
-      gif.renderFrame(ScheduleSim.getSimulationStep());
+      gif.renderFrame(context.getStep());
     }
   }
   
+  public void setStreamingMetrics(int binCount, int smallestTaskUnits, int largestTaskUnits,
+                                  boolean retainCompletedTasks){
+    // Makespan and the size binned makespans are worked out as each task
+    // completes, binned over the declared task size range rather than the
+    // range of the tasks seen. Without retaining completed tasks, memory
+    // stays flat however long the run, but the renderers have nothing to draw.
+    this.streamingMetrics = new TaskMetrics(binCount, smallestTaskUnits, largestTaskUnits);
+    this.retainCompletedTasks = retainCompletedTasks;
+    for(Consumer consumer : getConsumers()){
+      consumer.setMetrics(streamingMetrics.copy(), retainCompletedTasks);
+    }
+  }
+
+  public TaskMetrics getStreamingMetrics(){
+    // All the consumers' metrics merged, null if not streaming
+    if(streamingMetrics == null){
+      return null;
+    }
+    TaskMetrics merged = streamingMetrics.copy();
+    for(Consumer consumer : getConsumers()){
+      merged.merge(consumer.getMetrics());
+    }
+    return merged;
+  }
+
   public void addEntity(SimEntity parent , ConsumingEntity child) throws BadParentException {
     if(parent instanceof Producer){
       // Root of the tree
       producer = (Producer)parent;
+      producer.setContext(context);
     } else {
       // Before adding, confirm parent exists
       if(!consumingEntities.contains((ConsumingEntity)parent)){
@@ -52,9 +107,19 @@ public class Architecture {
       }
     }
     // Add child to archictecture
+    child.setContext(context);
+    child.updateBusy();
     consumingEntities.add(child);
+    if(child instanceof Scheduler){
+      ((Scheduler)child).setArchitecture(this);
+    }
+    if(streamingMetrics != null && child instanceof Consumer && ((Consumer)child).getMetrics() == null){
+      ((Consumer)child).setMetrics(streamingMetrics.copy(), retainCompletedTasks);
+    }
     // Add child to parent.
     parent.addChild(child);
+    // Levels need compiling again
+    levels = null;
   }
   
   public void removeEntity(SimEntity parent, ConsumingEntity child) throws BadChildException, BadParentException {
@@ -70,9 +135,64 @@ public class Architecture {
     
     // Remove child from list of entities
     consumingEntities.remove(child);
+    child.releaseBusy();
     
     // Remove reference from parent
     parent.removeChild(child);
+    // Levels need compiling again
+    levels = null;
+  }
+
+  public ConsumingEntity[][] getLevels(){
+    if(levels == null){
+      compileLevels();
+    }
+    return levels;
+  }
+
+  public int[][] getLevelOrders(){
+    // The order to step each level in, the simulator shuffles these in place
+    if(levels == null){
+      compileLevels();
+    }
+    return levelOrders;
+  }
+
+  public Consumer[][] getLevelConsumers(){
+    // Just the consumers of each level
+    if(levels == null){
+      compileLevels();
+    }
+    return levelConsumers;
+  }
+
+  private void compileLevels(){
+    // Walk the tree a level at a time from the producer's child
+    ArrayList<ConsumingEntity[]> compiledLevels = new ArrayList<>();
+    ArrayList<ConsumingEntity> level = new ArrayList<>(producer.getChildren());
+    while(!level.isEmpty()){
+      compiledLevels.add(level.toArray(new ConsumingEntity[level.size()]));
+      ArrayList<ConsumingEntity> nextLevel = new ArrayList<>();
+      for(ConsumingEntity entity : level){
+        nextLevel.addAll(entity.getChildren());
+      }
+      level = nextLevel;
+    }
+
+    levels = compiledLevels.toArray(new ConsumingEntity[compiledLevels.size()][]);
+    levelOrders = new int[levels.length][];
+    levelConsumers = new Consumer[levels.length][];
+    for(int l = 0; l < levels.length; l++){
+      levelOrders[l] = new int[levels[l].length];
+      ArrayList<Consumer> consumers = new ArrayList<>();
+      for(int i = 0; i < levelOrders[l].length; i++){
+        levelOrders[l][i] = i;
+        if(levels[l][i] instanceof Consumer){
+          consumers.add((Consumer)levels[l][i]);
+        }
+      }
+      levelConsumers[l] = consumers.toArray(new Consumer[consumers.size()]);
+    }
   }
 
   public Producer getProducer(){
@@ -80,12 +200,81 @@ public class Architecture {
   }
 
   public void resetAllEntities(){
+    context.setStep(0);
     producer.reset();
     for(ConsumingEntity consumingEntity : consumingEntities){
       consumingEntity.reset();
     }
   }
   
+  public Architecture fork(String name, SchedulerReplacer replacer) throws BadParentException {
+    // A copy of this architecture, carrying on from the current step, that
+    // runs independently of it. Waiting tasks are copied, completed tasks
+    // (and the table rows of those before the first waiting task) are shared. The replacer can swap schedulers, a replacement takes over
+    // the original's queue but starts with its own state afresh.
+    int firstUnfinishedTid = Integer.MAX_VALUE;
+    for(ConsumingEntity consumingEntity : consumingEntities){
+      for(Task task : consumingEntity.getWaitingTasks()){
+        firstUnfinishedTid = Math.min(firstUnfinishedTid, task.getTid());
+      }
+    }
+    SimulationContext forkContext = context.fork(firstUnfinishedTid);
+    Architecture fork = new Architecture(name, forkContext);
+    // Forked consumers bring copies of their metrics so far
+    fork.streamingMetrics = streamingMetrics;
+    fork.retainCompletedTasks = retainCompletedTasks;
+    IdentityHashMap<SimEntity, SimEntity> forkedEntities = new IdentityHashMap<>();
+    forkedEntities.put(producer, producer.fork(forkContext));
+
+    // Entities are listed parents first, so the tree is built in order
+    for(ConsumingEntity consumingEntity : consumingEntities){
+      ConsumingEntity forkedEntity = null;
+      if(consumingEntity instanceof Scheduler && replacer != null){
+        forkedEntity = replacer.replaceScheduler((Scheduler)consumingEntity);
+        if(forkedEntity != null){
+          forkedEntity.takeOver(consumingEntity, forkContext);
+        }
+      }
+      if(forkedEntity == null){
+        forkedEntity = (ConsumingEntity)consumingEntity.fork(forkContext);
+      }
+      forkedEntities.put(consumingEntity, forkedEntity);
+      fork.addEntity(forkedEntities.get(consumingEntity.getParent()), forkedEntity);
+    }
+    return fork;
+  }
+
+  public void writeSnapshot(SnapshotWriter out) throws IOException {
+    // Everything that changes as the simulation runs. The tree and the
+    // metatasks are not written, they come from the architecture restored into.
+    context.writeSnapshot(out);
+    producer.writeSnapshot(out);
+    out.writeInt(consumingEntities.size());
+    for(ConsumingEntity consumingEntity : consumingEntities){
+      out.writeInt(consumingEntity.getClass().getName().hashCode());
+      consumingEntity.writeSnapshot(out);
+    }
+  }
+
+  public void readSnapshot(SnapshotReader in) throws IOException {
+    // Restores the state into this architecture, which must have been built
+    // the same way as the one the snapshot was taken from.
+    context.readSnapshot(in);
+    producer.readSnapshot(in);
+    int entityCount = in.readInt();
+    if(entityCount != consumingEntities.size()){
+      throw new IOException("Snapshot has " + entityCount + " consuming entities, architecture has "
+                            + consumingEntities.size());
+    }
+    for(ConsumingEntity consumingEntity : consumingEntities){
+      if(in.readInt() != consumingEntity.getClass().getName().hashCode()){
+        throw new IOException("Snapshot entity does not match " + consumingEntity.getClass().getSimpleName()
+                              + " " + consumingEntity.getId());
+      }
+      consumingEntity.readSnapshot(in);
+    }
+  }
+
   public ArrayList<ConsumingEntity> getConsumingEntities(){
     return consumingEntities;
   }
@@ -111,39 +300,17 @@ public class Architecture {
   }
   
   public int getMakespan() {
-    
-    // Get Consumers
-    ArrayList<Consumer> consumers = getConsumers();
-    
-    // Gather completed tasks
-    ArrayList<Task> completedTasks = new ArrayList<>();
-    for (Consumer consumer : consumers) {
-      completedTasks.addAll(consumer.getCompletedTasks());
+    // From the first task submitted to the last to finish
+    if (streamingMetrics != null) {
+      return getStreamingMetrics().getMakespan();
     }
-    
-    // Get first task submission time, this will count as our start time
-    int firstSubmissionStep = -1;
-    for (Task task : completedTasks ) {
-      if (task.getStartUnits() < firstSubmissionStep || (firstSubmissionStep == -1)) {
-        firstSubmissionStep = task.getStepSubmitted();
+    TaskMetrics metrics = new TaskMetrics(1, 0, 0);
+    for (Consumer consumer : getConsumers()) {
+      for (Task task : consumer.getCompletedTasks()) {
+        metrics.record(task);
       }
     }
-
-    // Get time of last task to finish
-    int lastFinishStep = -1;
-    for (Task task : completedTasks ) {
-      if ((task.getStepFinished() > lastFinishStep)
-        || (lastFinishStep == -1)) {
-        lastFinishStep = task.getStepFinished();
-      }
-    }
-
-    // This shouldn't happen
-    if (lastFinishStep < firstSubmissionStep) {
-      return 0;
-    }
-
-    return lastFinishStep - firstSubmissionStep;
+    return metrics.getMakespan();
   }
 
   public double getUtilisation() {
@@ -170,51 +337,42 @@ public class Architecture {
   }
 
   public double[] getTaskSizeBinsAverageMakespans(int binCount) {
+    if (streamingMetrics != null) {
+      if (binCount != streamingMetrics.getBinCount()) {
+        throw new IllegalArgumentException("Streaming metrics have " + streamingMetrics.getBinCount()
+                                           + " bins, " + binCount + " asked for");
+      }
+      return getStreamingMetrics().getTaskSizeBinsAverageMakespans();
+    }
 
     // Get Consumers
     ArrayList<Consumer> consumers = getConsumers();
-    
-    // Gather completed tasks
-    ArrayList<Task> completedTasks = new ArrayList<>();
-    for (Consumer consumer : consumers) {
-      completedTasks.addAll(consumer.getCompletedTasks());
-    }
-
-    double[] avgTaskMakespanForBin = new double[binCount];
-    int[] taskCountInBins = new int[binCount];
-    int[] totalTaskMakespan = new int[binCount];
 
     // Find biggest and smallest task
     int smallestTaskUnits = -1;
     int largestTaskUnits = -1;
-    for (Task task : completedTasks) {
-      if (task.getStartUnits() < smallestTaskUnits || smallestTaskUnits == -1) {
-        smallestTaskUnits = task.getStartUnits();
-      }
-      if (task.getStartUnits() > largestTaskUnits) {
-        largestTaskUnits = task.getStartUnits();
+    for (Consumer consumer : consumers) {
+      for (Task task : consumer.getCompletedTasks()) {
+        if (task.getStartUnits() < smallestTaskUnits || smallestTaskUnits == -1) {
+          smallestTaskUnits = task.getStartUnits();
+        }
+        if (task.getStartUnits() > largestTaskUnits) {
+          largestTaskUnits = task.getStartUnits();
+        }
       }
     }
 
-    // Create group (bins) based on task size (equi-width)
-    double binWidth = ((double)(largestTaskUnits - smallestTaskUnits) / (double)binCount);
-
-    // Place each task in the group based on it's length
-    for (Task task : completedTasks) {
-      int binIndex = 0;
-      while ((((binIndex + 1) * binWidth) + smallestTaskUnits) < task.getStartUnits()) {
-        binIndex++;
+    // Create group (bins) based on task size (equi-width) and place each
+    // task in the group based on it's length
+    TaskMetrics metrics = new TaskMetrics(binCount, smallestTaskUnits, largestTaskUnits);
+    for (Consumer consumer : consumers) {
+      for (Task task : consumer.getCompletedTasks()) {
+        metrics.record(task);
       }
-      totalTaskMakespan[binIndex] += task.getStepFinished() - task.getStepSubmitted();
-      taskCountInBins[binIndex]++;
     }
 
     // Calculate average task group finish time
-    for (int binIndex = 0; binIndex < binCount; binIndex++) {
-      avgTaskMakespanForBin[binIndex] = ((double) totalTaskMakespan[binIndex] / (double) taskCountInBins[binIndex]);
-    }
-
-    return avgTaskMakespanForBin;
+    return metrics.getTaskSizeBinsAverageMakespans();
   }
   
 }
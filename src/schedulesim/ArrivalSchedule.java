@@ -0,0 +1,143 @@
+package schedulesim;
+
+import java.util.Arrays;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class ArrivalSchedule {
+
+  // The steps waves of tasks arrive on, kept sorted by step in a plain int
+  // array alongside the pattern for each, so a schedule of millions of
+  // arrivals stays small. Any number of patterns can arrive on the same
+  // step, in the order they were added. A cursor follows the clock, the
+  // simulator only ever asks about the step it is on or the ones after, so
+  // finding the next arrival is O(1) apart from moving the cursor on.
+  private static final int INITIAL_CAPACITY = 16;
+
+  private int[] steps;
+  private MetataskPattern[] patterns;
+  private int size;
+  // Set when an arrival is added before the last, sorted on next use
+  private boolean sorted;
+  // Index of the first arrival on or after the step last looked up
+  private int cursor;
+
+  public ArrivalSchedule() {
+    this.steps = new int[INITIAL_CAPACITY];
+    this.patterns = new MetataskPattern[INITIAL_CAPACITY];
+    this.size = 0;
+    this.sorted = true;
+    this.cursor = 0;
+  }
+
+  public ArrivalSchedule copy() {
+    ArrivalSchedule copy = new ArrivalSchedule();
+    copy.steps = Arrays.copyOf(steps, steps.length);
+    copy.patterns = Arrays.copyOf(patterns, patterns.length);
+    copy.size = size;
+    copy.sorted = sorted;
+    copy.cursor = cursor;
+    return copy;
+  }
+
+  public void add(int step, MetataskPattern pattern) {
+    if (size == steps.length) {
+      steps = Arrays.copyOf(steps, size * 2);
+      patterns = Arrays.copyOf(patterns, size * 2);
+    }
+    if (size > 0 && step < steps[size - 1]) {
+      sorted = false;
+    }
+    steps[size] = step;
+    patterns[size] = pattern;
+    size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getStep(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    sort();
+    return steps[index];
+  }
+
+  public MetataskPattern getPattern(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    sort();
+    return patterns[index];
+  }
+
+  public int seek(int step) {
+    // Index of the first arrival on or after the step, size if there is none
+    sort();
+    if (cursor > 0 && steps[cursor - 1] >= step) {
+      // The clock has gone back (reset or restored), search from the start
+      cursor = lowerBound(step);
+    }
+    while (cursor < size && steps[cursor] < step) {
+      cursor++;
+    }
+    return cursor;
+  }
+
+  public int nextArrivalStep(int step) {
+    // First step after the given one with an arrival, Integer.MAX_VALUE if none
+    int index = seek(step + 1);
+    return (index < size) ? steps[index] : Integer.MAX_VALUE;
+  }
+
+  public int lastArrivalStep() {
+    // Step of the last arrival, 0 if there are none
+    sort();
+    return (size > 0) ? Math.max(0, steps[size - 1]) : 0;
+  }
+
+  private int lowerBound(int step) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (steps[middle] < step) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private void sort() {
+    // Each key packs the step above the position it was added at, so
+    // arrivals on the same step keep the order they were added in
+    if (sorted) {
+      return;
+    }
+    long[] keys = new long[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = ((long) steps[i] << 32) | i;
+    }
+    Arrays.sort(keys);
+    int[] sortedSteps = new int[steps.length];
+    MetataskPattern[] sortedPatterns = new MetataskPattern[patterns.length];
+    for (int i = 0; i < size; i++) {
+      int index = (int) keys[i];
+      sortedSteps[i] = steps[index];
+      sortedPatterns[i] = patterns[index];
+    }
+    steps = sortedSteps;
+    patterns = sortedPatterns;
+    sorted = true;
+    cursor = 0;
+  }
+}
@@ -0,0 +1,35 @@
+package schedulesim;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class BimodalPattern extends SampledSizePattern {
+
+  // A mix of two kinds of task, such as many short interactive jobs and a
+  // few long batch jobs, each sized by its own sampler
+  private final TaskSizeSampler firstSizes;
+  private final TaskSizeSampler secondSizes;
+  private final double firstChance;
+
+  public BimodalPattern(int count, TaskSizeSampler firstSizes, TaskSizeSampler secondSizes, double firstChance){
+    super(count);
+    if(firstChance < 0.0 || firstChance > 1.0){
+      throw new IllegalArgumentException("Tried to create bimodal pattern with chance outside [0, 1]");
+    }
+    this.firstSizes = firstSizes;
+    this.secondSizes = secondSizes;
+    this.firstChance = firstChance;
+  }
+
+  @Override
+  public int sampleUnits(RandomStream random) {
+    if(random.nextDouble() < firstChance){
+      return firstSizes.sampleUnits(random);
+    }
+    return secondSizes.sampleUnits(random);
+  }
+}
@@ -0,0 +1,40 @@
+package schedulesim;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class BoundedParetoPattern extends SampledSizePattern {
+
+  // Heavy tailed sizes from smallestSize to largestSize, most tasks small
+  // and a few very large, the smaller alpha the heavier the tail
+  private final int smallestSize;
+  private final int largestSize;
+  private final double alpha;
+  // 1 - (smallest / largest)^alpha, the CDF's range before scaling
+  private final double range;
+
+  public BoundedParetoPattern(int count, double alpha, int smallestSize, int largestSize){
+    super(count);
+    if(alpha <= 0.0){
+      throw new IllegalArgumentException("Tried to create bounded Pareto pattern with alpha <= 0");
+    }
+    if(smallestSize < 1 || largestSize < smallestSize){
+      throw new IllegalArgumentException("Tried to create bounded Pareto pattern with smallest < 1 or largest < smallest");
+    }
+    this.smallestSize = smallestSize;
+    this.largestSize = largestSize;
+    this.alpha = alpha;
+    this.range = 1.0 - Math.pow((double)smallestSize / largestSize, alpha);
+  }
+
+  @Override
+  public int sampleUnits(RandomStream random) {
+    // Inverse of the CDF F(x) = (1 - (L/x)^alpha) / (1 - (L/H)^alpha)
+    double size = smallestSize / Math.pow(1.0 - (random.nextDouble() * range), 1.0 / alpha);
+    return Math.min(largestSize, Math.max(smallestSize, toUnits(size)));
+  }
+}
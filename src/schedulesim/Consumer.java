@@ -1,6 +1,7 @@
 package schedulesim;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0 International License.
@@ -14,7 +15,20 @@ public class Consumer extends ConsumingEntity {
   private int unitPerStep;
   private int unitsUsed;
 
-  private ArrayList<Task> completedTasks;
+  // Running totals over the waiting tasks, so the delay and drain step need
+  // no scan of the queue. Tasks only leave a consumer's queue by being
+  // worked off, so they change on submit and as the consumer works.
+  private long queuedUnits;
+  // Whole steps of work left, summed task by task (remaining / ups rounded
+  // down for each), which is how the delay has always been counted.
+  private long queuedSteps;
+
+  private TaskHistory completedTasks;
+  private int completedTaskCount;
+  // Results worked out as tasks complete (null if not), so that completed
+  // tasks can be released rather than kept for the results at the end
+  private TaskMetrics metrics;
+  private boolean retainCompletedTasks;
 
   public Consumer(int unitPerStep) throws IllegalArgumentException{
     super();
@@ -24,7 +38,23 @@ public class Consumer extends ConsumingEntity {
     }
     this.unitPerStep = unitPerStep;
     this.unitsUsed = 0;
-    this.completedTasks = new ArrayList<>();
+    this.queuedUnits = 0;
+    this.queuedSteps = 0;
+    this.completedTasks = new TaskHistory();
+    this.completedTaskCount = 0;
+    this.metrics = null;
+    this.retainCompletedTasks = true;
+  }
+
+  public void setMetrics(TaskMetrics metrics, boolean retainCompletedTasks){
+    // Without the completed tasks, getCompletedTasks() stays empty and the
+    // results come from the metrics alone
+    this.metrics = metrics;
+    this.retainCompletedTasks = retainCompletedTasks;
+  }
+
+  public TaskMetrics getMetrics(){
+    return metrics;
   }
 
   @Override
@@ -43,25 +73,147 @@ public class Consumer extends ConsumingEntity {
 
   @Override
   public double getDelay() {
-    double delay = 0;
-    for(Task task : super.getWaitingTasks()){
-      // Work out the delay for each task
-      delay += (task.getRemaingUnits() / unitPerStep);
-    }
-    return delay;
+    return queuedSteps;
   }
 
-  public ArrayList<Task> getCompletedTasks(){
+  public List<Task> getCompletedTasks(){
     return completedTasks;
   }
 
+  public int getCompletedTaskCount(){
+    // Counts tasks completed whether or not they were retained
+    return completedTaskCount;
+  }
+
   public double getTotalUtilisation(){
-    return ((double)unitsUsed) / ((double)(ScheduleSim.getSimulationStep() * unitPerStep));
+    return ((double)unitsUsed) / ((double)(super.getContext().getStep() * unitPerStep));
+  }
+
+  public int getDrainStep(){
+    // Step on which the last task in the queue will finish, if no more work
+    // arrives. The current step if there is nothing queued.
+    return super.getContext().getStep() + (int)((queuedUnits + unitPerStep - 1) / unitPerStep);
+  }
+
+  @Override
+  public void skipSteps(int steps){
+    super.skipSteps(steps);
+    // The clock is on the first skipped step. With no new work arriving,
+    // when each queued task starts and finishes follows from the units
+    // queued ahead of it (C) alone. Counting from the last step taken, a
+    // task starts floor(C / ups) + 1 steps later and finishes once C plus
+    // its own units have been worked off, which is what stepping through
+    // gives, without stepping through.
+    TaskQueue waiting = super.getWaitingTasks();
+    int lastStep = super.getContext().getStep() - 1;
+    int lastSkippedStep = lastStep + steps;
+    long budgetUnits = (long)steps * unitPerStep;
+    long unitsAhead = 0;
+    while(!waiting.isEmpty()){
+      Task task = waiting.peek();
+      int startStep = lastStep + (int)(unitsAhead / unitPerStep) + 1;
+      if(startStep > lastSkippedStep){
+        // Not reached in the skipped steps
+        break;
+      }
+      int remainingUnits = task.getRemaingUnits();
+      if(unitsAhead + remainingUnits > budgetUnits){
+        // Started (or carried on with) but not finished
+        int units = (int)(budgetUnits - unitsAhead);
+        task.fastForward(units, startStep, -1);
+        unitsWorked(remainingUnits, remainingUnits - units);
+        unitsAhead = budgetUnits;
+        break;
+      }
+      unitsAhead += remainingUnits;
+      int finishStep = lastStep + (int)((unitsAhead + unitPerStep - 1) / unitPerStep);
+      task.fastForward(remainingUnits, startStep, Math.max(startStep, finishStep));
+      unitsWorked(remainingUnits, 0);
+      taskCompleted(waiting.poll());
+    }
+    unitsUsed += unitsAhead;
+  }
+
+  @Override
+  protected SimEntity fork(SimulationContext context) {
+    // Completed tasks are shared with the fork rather than copied
+    Consumer fork = (Consumer) super.fork(context);
+    fork.completedTasks = completedTasks.fork(context.getTaskTable());
+    if(metrics != null){
+      fork.metrics = metrics.copy();
+    }
+    return fork;
+  }
+
+  @Override
+  public void writeSnapshot(SnapshotWriter out) throws IOException {
+    super.writeSnapshot(out);
+    out.writeInt(unitsUsed);
+    out.writeInt(completedTaskCount);
+    out.writeInt(metrics != null ? 1 : 0);
+    if(metrics != null){
+      metrics.writeSnapshot(out);
+    }
+    out.writeInt(completedTasks.size());
+    for(Task task : completedTasks){
+      out.writeTask(task);
+    }
+  }
+
+  @Override
+  public void readSnapshot(SnapshotReader in) throws IOException {
+    super.readSnapshot(in);
+    queuedUnits = 0;
+    queuedSteps = 0;
+    for(Task task : super.getWaitingTasks()){
+      queuedUnits += task.getRemaingUnits();
+      queuedSteps += task.getRemaingUnits() / unitPerStep;
+    }
+    super.stateChanged();
+    unitsUsed = in.readInt();
+    completedTaskCount = in.readInt();
+    if((in.readInt() == 1) != (metrics != null)){
+      throw new IOException("Snapshot metrics do not match consumer " + super.getId());
+    }
+    if(metrics != null){
+      metrics.readSnapshot(in);
+    }
+    completedTasks.clear();
+    int completedCount = in.readInt();
+    for(int i = 0; i < completedCount; i++){
+      completedTasks.add(in.readTask(super.getContext()));
+    }
   }
 
   @Override
   public void submitTask(Task task){
     super.submitTask(task);
+    queuedUnits += task.getRemaingUnits();
+    queuedSteps += task.getRemaingUnits() / unitPerStep;
+    super.stateChanged();
+  }
+
+  private void unitsWorked(int remainingBefore, int remainingAfter){
+    // Keeps the running totals in step as a task is worked on
+    queuedUnits -= remainingBefore - remainingAfter;
+    queuedSteps -= (remainingBefore / unitPerStep) - (remainingAfter / unitPerStep);
+    super.stateChanged();
+  }
+
+  private void taskCompleted(Task task){
+    completedTaskCount++;
+    TraceWriter trace = super.getContext().getTrace();
+    if(trace != null){
+      trace.taskCompleted(this, task);
+    }
+    if(metrics != null){
+      metrics.record(task);
+    }
+    if(retainCompletedTasks){
+      completedTasks.add(task);
+    }else{
+      task.getTable().release(task.getTid());
+    }
   }
 
   @Override
@@ -73,7 +225,8 @@ public class Consumer extends ConsumingEntity {
     while(remainingUnitsForThisStep > 0){
 
       // Is there work to do?
-      if(super.getWaitingTasks().isEmpty()){
+      Task task = super.getWaitingTasks().peek();
+      if(task == null){
         // There is no more work to do, stop.
         break;
       }
@@ -82,16 +235,15 @@ public class Consumer extends ConsumingEntity {
       // event the work the task has to do is smaller than the unitPerStep then
       // the remaining unitPerStep is returned so there can be applied to the
       // next task.
-      remainingUnitsForThisStep = super.getWaitingTasks().get(0).decrementUnits(remainingUnitsForThisStep);
+      int remainingUnits = task.getRemaingUnits();
+      remainingUnitsForThisStep = task.decrementUnits(remainingUnitsForThisStep);
+      unitsWorked(remainingUnits, task.getRemaingUnits());
 
       // Is the task finished
-      if(super.getWaitingTasks().get(0).isFinished()){
-
-        // add to completed tasks list
-        completedTasks.add(super.getWaitingTasks().get(0));
+      if(task.isFinished()){
 
-        // Remove from waiting list
-        super.getWaitingTasks().remove(0);
+        // Move from waiting list to completed tasks list
+        taskCompleted(super.getWaitingTasks().poll());
       }
     }
 
@@ -1,6 +1,6 @@
 package schedulesim;
 
-import java.util.ArrayList;
+import java.io.IOException;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0 International License.
@@ -11,11 +11,15 @@ import java.util.ArrayList;
  */
 public abstract class ConsumingEntity extends SimEntity {
 
-  private final ArrayList<Task> waiting;
+  private TaskQueue waiting;
+
+  // Whether this entity is counted as busy by the simulation context
+  private boolean busy;
 
   public ConsumingEntity() {
     super();
-    waiting = new ArrayList<>();
+    waiting = new TaskQueue();
+    busy = false;
   }
 
   public abstract int getUnitsPerStep();
@@ -26,9 +30,12 @@ public abstract class ConsumingEntity extends SimEntity {
 
   public void submitTask(Task task) {
     waiting.add(task);
+    if (!busy) {
+      updateBusy();
+    }
   }
 
-  public ArrayList<Task> getWaitingTasks() {
+  public TaskQueue getWaitingTasks() {
     return waiting;
   }
 
@@ -36,4 +43,69 @@ public abstract class ConsumingEntity extends SimEntity {
   public boolean isFinished() {
     return waiting.isEmpty();
   }
+
+  @Override
+  protected SimEntity fork(SimulationContext context) {
+    ConsumingEntity fork = (ConsumingEntity) super.fork(context);
+    fork.waiting = waiting.fork(context.getTaskTable());
+    fork.busy = false;
+    return fork;
+  }
+
+  @Override
+  void takeOver(SimEntity entity, SimulationContext context) {
+    super.takeOver(entity, context);
+    waiting = ((ConsumingEntity) entity).waiting.fork(context.getTaskTable());
+  }
+
+  @Override
+  public void writeSnapshot(SnapshotWriter out) throws IOException {
+    super.writeSnapshot(out);
+    out.writeInt(waiting.size());
+    for (Task task : waiting) {
+      out.writeTask(task);
+    }
+  }
+
+  @Override
+  public void readSnapshot(SnapshotReader in) throws IOException {
+    super.readSnapshot(in);
+    waiting.clear();
+    int waitingCount = in.readInt();
+    for (int i = 0; i < waitingCount; i++) {
+      waiting.add(in.readTask(super.getContext()));
+    }
+    updateBusy();
+  }
+
+  protected void stateChanged() {
+    // Entities tell the scheduler above them when their delay or utilisation
+    // changes, so it knows to update what it has cached.
+    if (super.getParent() instanceof Scheduler) {
+      ((Scheduler) super.getParent()).childStateChanged();
+    }
+  }
+
+  void updateBusy() {
+    // Keeps the context's count of busy entities in step with this entity.
+    // Tasks only arrive through submitTask and the queue only drains while
+    // the entity steps, so the simulator calls this after each step.
+    boolean nowBusy = !waiting.isEmpty();
+    if (nowBusy != busy) {
+      busy = nowBusy;
+      if (busy) {
+        super.getContext().entityBecameBusy();
+      } else {
+        super.getContext().entityBecameIdle();
+      }
+    }
+  }
+
+  void releaseBusy() {
+    // The entity is leaving the simulation, it no longer counts
+    if (busy) {
+      busy = false;
+      super.getContext().entityBecameIdle();
+    }
+  }
 }
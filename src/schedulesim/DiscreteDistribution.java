@@ -0,0 +1,84 @@
+package schedulesim;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class DiscreteDistribution {
+
+  // Draws an index with chance in proportion to its weight, in O(1) with a
+  // single random double, using Walker's alias method (Vose's construction).
+  // Each index has a column of equal height holding its own chance and the
+  // index the rest of the column goes to. Built once and only read after,
+  // so a pattern can share it between runs on different threads.
+  private final double[] chances;
+  private final int[] aliases;
+
+  public DiscreteDistribution(double[] weights) {
+    int n = weights.length;
+    double total = 0.0;
+    for (double weight : weights) {
+      if (weight < 0.0 || Double.isNaN(weight) || Double.isInfinite(weight)) {
+        throw new IllegalArgumentException("Tried to create distribution with a weight < 0 or not finite");
+      }
+      total += weight;
+    }
+    if (n == 0 || total <= 0.0) {
+      throw new IllegalArgumentException("Tried to create distribution without a positive weight");
+    }
+    chances = new double[n];
+    aliases = new int[n];
+
+    // Scale so the average column is 1, then fill each short column from a tall one
+    double[] scaled = new double[n];
+    int[] small = new int[n];
+    int[] large = new int[n];
+    int smallCount = 0;
+    int largeCount = 0;
+    for (int i = 0; i < n; i++) {
+      scaled[i] = (weights[i] * n) / total;
+      if (scaled[i] < 1.0) {
+        small[smallCount++] = i;
+      } else {
+        large[largeCount++] = i;
+      }
+    }
+    while (smallCount > 0 && largeCount > 0) {
+      int less = small[--smallCount];
+      int more = large[--largeCount];
+      chances[less] = scaled[less];
+      aliases[less] = more;
+      scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+      if (scaled[more] < 1.0) {
+        small[smallCount++] = more;
+      } else {
+        large[largeCount++] = more;
+      }
+    }
+    // What is left is full, up to rounding
+    while (largeCount > 0) {
+      int more = large[--largeCount];
+      chances[more] = 1.0;
+      aliases[more] = more;
+    }
+    while (smallCount > 0) {
+      int less = small[--smallCount];
+      chances[less] = 1.0;
+      aliases[less] = less;
+    }
+  }
+
+  public int size() {
+    return chances.length;
+  }
+
+  public int sample(RandomStream random) {
+    // The whole part of the draw picks the column, the fraction where in it
+    double draw = random.nextDouble() * chances.length;
+    int column = (int) draw;
+    return ((draw - column) < chances[column]) ? column : aliases[column];
+  }
+}
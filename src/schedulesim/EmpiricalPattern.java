@@ -0,0 +1,38 @@
+package schedulesim;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class EmpiricalPattern extends SampledSizePattern {
+
+  // Sizes following a histogram, such as one exported from a cluster. Bin
+  // i covers sizes binEdges[i] (inclusive) to binEdges[i + 1] (exclusive)
+  // and is picked in proportion to its weight (a task count will do), then
+  // the size is uniform within it.
+  private final int[] binEdges;
+  private final DiscreteDistribution bins;
+
+  public EmpiricalPattern(int count, int[] binEdges, double[] binWeights){
+    super(count);
+    if(binEdges.length != binWeights.length + 1){
+      throw new IllegalArgumentException("Tried to create empirical pattern without an edge either side of each bin");
+    }
+    for(int i = 0; i < binWeights.length; i++){
+      if(binEdges[i] < 1 || binEdges[i + 1] <= binEdges[i]){
+        throw new IllegalArgumentException("Tried to create empirical pattern with a bin edge < 1 or bins out of order");
+      }
+    }
+    this.binEdges = binEdges.clone();
+    this.bins = new DiscreteDistribution(binWeights);
+  }
+
+  @Override
+  public int sampleUnits(RandomStream random) {
+    int bin = bins.sample(random);
+    return binEdges[bin] + random.nextInt(binEdges[bin + 1] - binEdges[bin]);
+  }
+}
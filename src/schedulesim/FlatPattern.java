@@ -1,6 +1,7 @@
 package schedulesim;
 
-import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0 International License.
@@ -20,12 +21,24 @@ public class FlatPattern implements MetataskPattern {
   }
 
   @Override
-  public ArrayList<Task> generateMetatask() {
-    ArrayList<Task> tasks = new ArrayList<>();
-    for(int i = 0; i < taskCount; i++){
-      tasks.add(new Task(taskSize));
-    }
-    return tasks;
+  public Iterator<Task> iterateMetatask(final SimulationContext context, RandomStream random) {
+    return new Iterator<Task>() {
+      private int i = 0;
+
+      @Override
+      public boolean hasNext() {
+        return i < taskCount;
+      }
+
+      @Override
+      public Task next() {
+        if(!hasNext()){
+          throw new NoSuchElementException();
+        }
+        i++;
+        return new Task(context, taskSize);
+      }
+    };
   }
 
 }
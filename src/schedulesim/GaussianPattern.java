@@ -1,7 +1,7 @@
 package schedulesim;
 
-import java.util.ArrayList;
-import java.util.Random;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0 International License.
@@ -10,13 +10,15 @@ import java.util.Random;
  * 
  * @author paul moggridge (paulmogs398@gmail.com)
  */
-public class GaussianPattern implements MetataskPattern {
+public class GaussianPattern implements MetataskPattern, TaskSizeSampler {
 
   private final int startSize;
   private final int endSize;
   private final double mu;
   private final double sigma;
   private final int combinedTargetSize;
+  // Built once per pattern, every wave draws its sizes from it
+  private final DiscreteDistribution taskSizeDistribution;
 
   public GaussianPattern(int startSize, int endSize, double mu, double sigma, int combinedTargetSize){
     this.startSize = startSize;
@@ -24,36 +26,56 @@ public class GaussianPattern implements MetataskPattern {
     this.mu = mu;
     this.sigma = sigma;
     this.combinedTargetSize = combinedTargetSize;
+    this.taskSizeDistribution = new DiscreteDistribution(wieghtedDistribution());
   }
 
   @Override
-  public ArrayList<Task> generateMetatask() {
-    ArrayList<Task> tasks = new ArrayList<>();
-    double[] taskSizeDistribution = wieghtedDistribution();
-    Random rand = new Random();
-    int actualTotalLength = 0;
+  public int sampleUnits(RandomStream random) {
+    // A task size on the curve, the pattern can also size tasks for a producer
+    return taskSizeDistribution.sample(random) + startSize;
+  }
+
+  @Override
+  public Iterator<Task> iterateMetatask(final SimulationContext context, final RandomStream random) {
+    return new Iterator<Task>() {
+      private int actualTotalLength = 0;
+      // The next task's size is picked ahead, to know whether there is one
+      private boolean picked = false;
+      private boolean finished = false;
+      private int nextTaskSize = 0;
+
+      @Override
+      public boolean hasNext() {
+        if (!picked && !finished) {
+          pickTaskSize();
+        }
+        return !finished;
+      }
+
+      @Override
+      public Task next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        // Add length of the task to the running total
+        actualTotalLength += nextTaskSize;
+        picked = false;
+        return new Task(context, nextTaskSize);
+      }
 
-    while (true) {
-      // Pick a task size
-      int potentialTaskSize = rand.nextInt(endSize - startSize); // not offset
-      // Draw a random number
-      double randomChance = rand.nextDouble();
-      // For the randomly selected task size, use the random chance against the
-      // weighted distro to decide whether to create a task of this size
-      if (randomChance < taskSizeDistribution[potentialTaskSize]) { // not offset
+      private void pickTaskSize() {
+        // Pick a task size, weighted by the curve
+        int potentialTaskSize = sampleUnits(random);
         // Stop adding tasks if adding this task will exceed cause target to be exceed
-        if ((actualTotalLength + (potentialTaskSize + startSize)) < combinedTargetSize) {
-          // Create the task
-          tasks.add(new Task(potentialTaskSize + startSize));
-          // Add length of the task to the running total
-          actualTotalLength += (potentialTaskSize + startSize); // plus offset
+        if ((actualTotalLength + potentialTaskSize) < combinedTargetSize) {
+          nextTaskSize = potentialTaskSize;
+          picked = true;
         } else {
-          // Break to stop adding tasks
-          break;
+          // Stop adding tasks
+          finished = true;
         }
       }
-    }
-    return tasks;
+    };
   }
 
   private double[] wieghtedDistribution() {
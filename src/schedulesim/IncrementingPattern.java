@@ -1,6 +1,7 @@
 package schedulesim;
 
-import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0 International License.
@@ -20,12 +21,23 @@ public class IncrementingPattern implements MetataskPattern{
   }
 
   @Override
-  public ArrayList<Task> generateMetatask() {
-    ArrayList<Task> tasks = new ArrayList<>();
-    for(int i = start; i < stop; i++){
-      tasks.add(new Task(i));
-    }
-    return tasks;
+  public Iterator<Task> iterateMetatask(final SimulationContext context, RandomStream random) {
+    return new Iterator<Task>() {
+      private int i = start;
+
+      @Override
+      public boolean hasNext() {
+        return i < stop;
+      }
+
+      @Override
+      public Task next() {
+        if(!hasNext()){
+          throw new NoSuchElementException();
+        }
+        return new Task(context, i++);
+      }
+    };
   }
 
 }
@@ -0,0 +1,33 @@
+package schedulesim;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class LognormalPattern extends SampledSizePattern {
+
+  // Sizes whose log is normal with mean mu and standard deviation sigma, so
+  // the median size is e^mu with a long tail above it
+  private final double mu;
+  private final double sigma;
+
+  public LognormalPattern(int count, double mu, double sigma){
+    super(count);
+    if(sigma < 0.0){
+      throw new IllegalArgumentException("Tried to create lognormal pattern with sigma < 0");
+    }
+    this.mu = mu;
+    this.sigma = sigma;
+  }
+
+  @Override
+  public int sampleUnits(RandomStream random) {
+    // A standard normal by Box-Muller, from two uniforms
+    double radius = Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble()));
+    double normal = radius * Math.cos(2.0 * Math.PI * random.nextDouble());
+    return toUnits(Math.exp(mu + (sigma * normal)));
+  }
+}
@@ -1,6 +1,7 @@
 package schedulesim;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0 International License.
@@ -10,5 +11,18 @@ import java.util.ArrayList;
  * @author paul moggridge (paulmogs398@gmail.com)
  */
 public interface MetataskPattern {
-  ArrayList<Task> generateMetatask();
+  // Any randomness must come from the given stream so runs can be reproduced.
+  // Tasks are created one at a time as the iterator is advanced, so a wave
+  // goes straight to the scheduler without being held in a list first.
+  Iterator<Task> iterateMetatask(SimulationContext context, RandomStream random);
+
+  default ArrayList<Task> generateMetatask(SimulationContext context, RandomStream random) {
+    // The whole wave at once
+    ArrayList<Task> tasks = new ArrayList<>();
+    Iterator<Task> iterator = iterateMetatask(context, random);
+    while (iterator.hasNext()) {
+      tasks.add(iterator.next());
+    }
+    return tasks;
+  }
 }
@@ -1,7 +1,21 @@
 package schedulesim;
 
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.zip.GZIPOutputStream;
+import schedulesim.scheduler.ChildDelays;
 import schedulesim.scheduler.MaxminFastTrackScheduler;
 import schedulesim.scheduler.MaxminScheduler;
 import schedulesim.scheduler.MinminMaxminFastTrackScheduler;
@@ -29,6 +43,14 @@ public class MiniTester {
         result = testTask();
         Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
 
+        Log.println("Testing Task Table...");
+        result = testTaskTable();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Task Queue...");
+        result = testTaskQueue();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
         Log.println("Testing Task Min Sort...");
         result = testTaskMinSort();
         Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
@@ -45,6 +67,10 @@ public class MiniTester {
         result = testFlatTaskPattern();
         Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
 
+        Log.println("Testing DiscreteDistribution...");
+        result = testDiscreteDistribution();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
         Log.println("Testing GaussianTaskPattern...");
         result = testGaussianTaskPattern();
         Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
@@ -57,9 +83,101 @@ public class MiniTester {
         result = testRandomTaskPattern();
         Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
 
+        Log.println("Testing Sampled Size Patterns...");
+        result = testSampledSizePatterns();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Metatask Iterators...");
+        result = testMetataskIterators();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Arrival Schedule...");
+        result = testArrivalSchedule();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
         Log.println("Testing Producer...");
         result = testProducer();
         Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Event Driven Engine...");
+        result = testEventDrivenEngine();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Consumer Fast Forward...");
+        result = testConsumerFastForward();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Consumer Delay...");
+        result = testConsumerDelay();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Scheduler Aggregates...");
+        result = testSchedulerAggregates();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Concurrent Simulations...");
+        result = testConcurrentSimulations();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Parallel Consumer Stepping...");
+        result = testParallelConsumerStepping();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Parameter Sweep...");
+        result = testParameterSweep();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Checkpoint Restore...");
+        result = testCheckpointRestore();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Checkpoint Rewind...");
+        result = testCheckpointRewind();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Architecture Fork...");
+        result = testArchitectureFork();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Streaming Metrics...");
+        result = testStreamingMetrics();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Trace Writer...");
+        result = testTraceWriter();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Trace Reader...");
+        result = testTraceReader();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Trace Percentile...");
+        result = testTracePercentile();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Trace Render...");
+        result = testTraceRender();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Trace Checkpoint...");
+        result = testTraceCheckpoint();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Replay Producer...");
+        result = testReplayProducer();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Arrival Process Producers...");
+        result = testArrivalProcessProducers();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Child Delays...");
+        result = testChildDelays();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
+
+        Log.println("Testing Parallel Child Scan...");
+        result = testParallelChildScan();
+        Log.println((result ? "SUCCESS\n" : "FAILURE\n"));
     }
 
     public static void runSchedulingTests() {
@@ -117,10 +235,11 @@ public class MiniTester {
     }
 
     private static boolean testTask() {
+        SimulationContext context = new SimulationContext();
         int unitSizeOne = 10;
         int unitSizeTwo = 20;
-        Task taskOne = new Task(unitSizeOne);
-        Task taskTwo = new Task(unitSizeTwo);
+        Task taskOne = new Task(context, unitSizeOne);
+        Task taskTwo = new Task(context, unitSizeTwo);
         if (taskOne.getTid() == taskTwo.getTid()
                 && taskOne.getStartUnits() != unitSizeOne
                 && taskOne.getRemaingUnits() != unitSizeOne
@@ -137,16 +256,89 @@ public class MiniTester {
                 && taskTwo.getStartUnits() == unitSizeTwo;
     }
 
+    private static boolean testTaskTable() {
+        // Enough tasks to fill several chunks, the first half finished
+        SimulationContext context = new SimulationContext(398);
+        Task[] tasks = new Task[10000];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new Task(context, 1 + (i % 50));
+        }
+        for (int i = 0; i < tasks.length / 2; i++) {
+            tasks[i].decrementUnits(50);
+        }
+
+        // Work the unfinished tasks in a fork, the original must not see it
+        SimulationContext fork = context.fork(tasks.length / 2);
+        TaskTable forkTable = fork.getTaskTable();
+        for (int i = tasks.length / 2; i < tasks.length; i++) {
+            forkTable.getTask(i).decrementUnits(50);
+        }
+        for (int i = 0; i < tasks.length; i++) {
+            Task forkTask = forkTable.getTask(i);
+            if (!forkTask.isFinished()
+                    || forkTask.getStartUnits() != tasks[i].getStartUnits()
+                    || tasks[i].isFinished() != (i < tasks.length / 2)
+                    || forkTask.equals(tasks[i])
+                    || !tasks[i].equals(context.getTaskTable().getTask(i))) {
+                return false;
+            }
+        }
+
+        // Both carry on numbering tasks from the same point
+        return new Task(fork, 7).getTid() == tasks.length
+                && new Task(context, 7).getTid() == tasks.length;
+    }
+
+    private static boolean testTaskQueue() {
+        SimulationContext context = new SimulationContext(398);
+        TaskQueue queue = new TaskQueue();
+        ArrayList<Task> expected = new ArrayList<>();
+
+        // Interleave adding and polling so the ring wraps around as it grows
+        for (int i = 0; i < 1000; i++) {
+            Task task = new Task(context, 1 + ((i * 37) % 23));
+            queue.add(task);
+            expected.add(task);
+            if (i % 3 == 0 && !queue.poll().equals(expected.remove(0))) {
+                return false;
+            }
+        }
+        if (!queue.equals(expected) || !queue.remove(5).equals(expected.remove(5))) {
+            return false;
+        }
+
+        // Sorting by units keeps ties in queue order, as a stable sort does
+        queue.sortMinFirst();
+        Collections.sort(expected, new TaskMinFirstComparator());
+        if (!queue.equals(expected)) {
+            return false;
+        }
+        queue.sortMaxFirst();
+        Collections.sort(expected, new TaskMaxFirstComparator());
+        if (!queue.equals(expected)) {
+            return false;
+        }
+
+        // Drains in order
+        for (Task task : expected) {
+            if (!task.equals(queue.peek()) || !task.equals(queue.poll())) {
+                return false;
+            }
+        }
+        return queue.isEmpty() && queue.poll() == null;
+    }
+
     private static boolean testTaskMinSort() {
+        SimulationContext context = new SimulationContext();
         ArrayList<Task> tasks = new ArrayList<>();
 
-        tasks.add(new Task(12));
-        tasks.add(new Task(22));
-        tasks.add(new Task(4));
-        tasks.add(new Task(11));
-        tasks.add(new Task(13));
-        tasks.add(new Task(8));
-        tasks.add(new Task(1));
+        tasks.add(new Task(context, 12));
+        tasks.add(new Task(context, 22));
+        tasks.add(new Task(context, 4));
+        tasks.add(new Task(context, 11));
+        tasks.add(new Task(context, 13));
+        tasks.add(new Task(context, 8));
+        tasks.add(new Task(context, 1));
 
         Log.println("Sorting Smallest (Min.) First");
         Collections.sort(tasks, new TaskMinFirstComparator());
@@ -163,15 +355,16 @@ public class MiniTester {
     }
 
     private static boolean testTaskMaxSort() {
+        SimulationContext context = new SimulationContext();
         ArrayList<Task> tasks = new ArrayList<>();
 
-        tasks.add(new Task(12));
-        tasks.add(new Task(22));
-        tasks.add(new Task(4));
-        tasks.add(new Task(11));
-        tasks.add(new Task(13));
-        tasks.add(new Task(8));
-        tasks.add(new Task(1));
+        tasks.add(new Task(context, 12));
+        tasks.add(new Task(context, 22));
+        tasks.add(new Task(context, 4));
+        tasks.add(new Task(context, 11));
+        tasks.add(new Task(context, 13));
+        tasks.add(new Task(context, 8));
+        tasks.add(new Task(context, 1));
 
         Log.println("Sorting Biggest (Max.) First");
         Collections.sort(tasks, new TaskMaxFirstComparator());
@@ -202,7 +395,7 @@ public class MiniTester {
         Collections.sort(consumingEntities, new ConsumingEntityMinFirstComparator());
 
         for (ConsumingEntity entity : consumingEntities) {
-            Log.println(entity.getId() + "," + entity.getUnitsPerStep() + "ups");
+            Log.println(entity.getUnitsPerStep() + "ups");
         }
 
         if (consumingEntities.get(6).getUnitsPerStep() > consumingEntities.get(0).getUnitsPerStep()) {
@@ -215,7 +408,8 @@ public class MiniTester {
         int taskCount = 8;
         int taskSize = 16;
         FlatPattern flat = new FlatPattern(taskCount, taskSize);
-        ArrayList<Task> tasks = flat.generateMetatask();
+        SimulationContext context = new SimulationContext();
+        ArrayList<Task> tasks = flat.generateMetatask(context, context.getRandom());
         Log.println("Flat Tasks");
         for (Task task : tasks) {
             Log.println(task.getTid() + "," + task.getStartUnits());
@@ -224,6 +418,24 @@ public class MiniTester {
                 && tasks.get(0).getStartUnits() == taskSize;
     }
 
+    private static boolean testDiscreteDistribution() {
+        // Draws should come up in proportion to the weights, never with no weight
+        double[] weights = {1, 0, 3, 6};
+        DiscreteDistribution distribution = new DiscreteDistribution(weights);
+        RandomStream random = new RandomStream(398);
+        int draws = 100000;
+        int[] counts = new int[weights.length];
+        for (int i = 0; i < draws; i++) {
+            counts[distribution.sample(random)]++;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            if (Math.abs(((double) counts[i] / draws) - (weights[i] / 10.0)) > 0.01) {
+                return false;
+            }
+        }
+        return counts[1] == 0;
+    }
+
     private static boolean testGaussianTaskPattern() {
         int startSize = 2;
         int endSize = 20;
@@ -231,7 +443,8 @@ public class MiniTester {
         double sigma = 4;
         int combinedTargetSize = 5000;
         GaussianPattern gaussian = new GaussianPattern(startSize, endSize, mu, sigma, combinedTargetSize);
-        ArrayList<Task> tasks = gaussian.generateMetatask();
+        SimulationContext context = new SimulationContext();
+        ArrayList<Task> tasks = gaussian.generateMetatask(context, context.getRandom());
 
         // So we can see the gaussian, count the number of type of task
         int[] counts = new int[endSize - startSize];
@@ -258,7 +471,8 @@ public class MiniTester {
         int start = 2;
         int stop = 10;
         IncrementingPattern increment = new IncrementingPattern(start, stop);
-        ArrayList<Task> tasks = increment.generateMetatask();
+        SimulationContext context = new SimulationContext();
+        ArrayList<Task> tasks = increment.generateMetatask(context, context.getRandom());
         Log.println("Incrementing Tasks");
         for (Task task : tasks) {
             Log.println(task.getTid() + "," + task.getStartUnits());
@@ -271,7 +485,8 @@ public class MiniTester {
         int end = 50;
         int count = 10;
         RandomPattern random = new RandomPattern(start, end, count);
-        ArrayList<Task> tasks = random.generateMetatask();
+        SimulationContext context = new SimulationContext();
+        ArrayList<Task> tasks = random.generateMetatask(context, context.getRandom());
         Log.println("Random Tasks");
         for (Task task : tasks) {
             Log.println(task.getTid() + "," + task.getStartUnits());
@@ -279,6 +494,134 @@ public class MiniTester {
         return tasks.size() == (count);
     }
 
+    /**
+     * Tests the heavy tailed, bimodal and empirical patterns draw sizes as they should.
+     */
+    private static boolean testSampledSizePatterns() {
+        RandomStream random = new RandomStream(398);
+        int draws = 200000;
+
+        // Medians of the bounded Pareto and lognormal, within 5%
+        BoundedParetoPattern pareto = new BoundedParetoPattern(10, 1.1, 10, 100000);
+        double paretoMedian = 10 / Math.pow(1.0 - (0.5 * (1.0 - Math.pow(10.0 / 100000, 1.1))), 1.0 / 1.1);
+        LognormalPattern lognormal = new LognormalPattern(10, 4.0, 1.0);
+        int[] paretoSizes = new int[draws];
+        int[] lognormalSizes = new int[draws];
+        for (int i = 0; i < draws; i++) {
+            paretoSizes[i] = pareto.sampleUnits(random);
+            lognormalSizes[i] = lognormal.sampleUnits(random);
+        }
+        Arrays.sort(paretoSizes);
+        Arrays.sort(lognormalSizes);
+        if (paretoSizes[0] < 10 || paretoSizes[draws - 1] > 100000
+                || Math.abs(paretoSizes[draws / 2] - paretoMedian) > paretoMedian * 0.05
+                || Math.abs(lognormalSizes[draws / 2] - Math.exp(4.0)) > Math.exp(4.0) * 0.05) {
+            return false;
+        }
+
+        // Shares of the two modes and of the histogram's bins, within 1%
+        BimodalPattern bimodal = new BimodalPattern(10, new UniformTaskSizeSampler(1, 2),
+                new UniformTaskSizeSampler(1000, 1001), 0.8);
+        EmpiricalPattern empirical = new EmpiricalPattern(10, new int[]{1, 10, 100, 1000}, new double[]{6, 3, 1});
+        int firstModeCount = 0;
+        int[] binCounts = new int[3];
+        for (int i = 0; i < draws; i++) {
+            if (bimodal.sampleUnits(random) == 1) {
+                firstModeCount++;
+            }
+            int size = empirical.sampleUnits(random);
+            binCounts[size < 10 ? 0 : (size < 100 ? 1 : 2)]++;
+        }
+        if (Math.abs(((double) firstModeCount / draws) - 0.8) > 0.01
+                || Math.abs(((double) binCounts[0] / draws) - 0.6) > 0.01
+                || Math.abs(((double) binCounts[1] / draws) - 0.3) > 0.01
+                || Math.abs(((double) binCounts[2] / draws) - 0.1) > 0.01) {
+            return false;
+        }
+
+        // Each makes a wave of count tasks
+        SimulationContext context = new SimulationContext(398);
+        for (SampledSizePattern pattern : new SampledSizePattern[]{pareto, lognormal, bimodal, empirical}) {
+            if (pattern.generateMetatask(context, context.getRandom()).size() != pattern.getCount()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests each pattern's iterator gives the same tasks as generating the wave whole.
+     */
+    private static boolean testMetataskIterators() {
+        MetataskPattern[] patterns = {
+            new FlatPattern(8, 16),
+            new GaussianPattern(2, 20, 11, 4, 5000),
+            new IncrementingPattern(2, 10),
+            new RandomPattern(2, 50, 10)
+        };
+        for (MetataskPattern pattern : patterns) {
+            SimulationContext generatedContext = new SimulationContext(398);
+            ArrayList<Task> generated = pattern.generateMetatask(generatedContext, generatedContext.getRandom());
+            SimulationContext iteratedContext = new SimulationContext(398);
+            Iterator<Task> iterator = pattern.iterateMetatask(iteratedContext, iteratedContext.getRandom());
+            for (Task expected : generated) {
+                // Asking twice must not skip a task
+                if (!iterator.hasNext() || !iterator.hasNext()) {
+                    return false;
+                }
+                Task actual = iterator.next();
+                if (actual.getTid() != expected.getTid() || actual.getStartUnits() != expected.getStartUnits()) {
+                    return false;
+                }
+            }
+            if (iterator.hasNext() || generated.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests arrivals on the same step all arrive, in order, whatever order they were added in.
+     */
+    private static boolean testArrivalSchedule() {
+        FlatPattern first = new FlatPattern(1, 4);
+        FlatPattern second = new FlatPattern(2, 6);
+        FlatPattern later = new FlatPattern(3, 8);
+        ArrivalSchedule schedule = new ArrivalSchedule();
+        schedule.add(9, later);
+        schedule.add(3, first);
+        schedule.add(3, second);
+        if (schedule.lastArrivalStep() != 9 || schedule.nextArrivalStep(0) != 3
+                || schedule.nextArrivalStep(3) != 9 || schedule.nextArrivalStep(9) != Integer.MAX_VALUE
+                || schedule.seek(3) != 0 || schedule.getPattern(0) != first || schedule.getPattern(1) != second
+                || schedule.getPattern(2) != later) {
+            return false;
+        }
+
+        // Both patterns on step 3 are sent, rather than the second replacing the first
+        Producer producer = new Producer("ArrivalScheduleTest");
+        producer.addMetatask(9, later);
+        producer.addMetatask(3, first);
+        producer.addMetatask(3, second);
+        Architecture architecture = new Architecture("ArrivalSchedule");
+        Consumer consumer = new Consumer(4);
+        try {
+            architecture.addEntity(producer, consumer);
+        } catch (BadParentException bpe) {
+            Log.println(bpe.getMessage());
+            return false;
+        }
+        ScheduleSim sim = new ScheduleSim();
+        sim.setEventDriven(true);
+        if (!runTestArchitecture(sim, architecture) || producer.getTasksSubmittedCount() != 6) {
+            return false;
+        }
+        List<Task> completedTasks = consumer.getCompletedTasks();
+        return completedTasks.get(0).getStartUnits() == 4 && completedTasks.get(1).getStartUnits() == 6
+                && completedTasks.get(0).getStepSubmitted() == 3 && completedTasks.get(5).getStepSubmitted() == 9;
+    }
+
     /**
      * Tests the Producer. This test doesn't use a scheduler.
      */
@@ -335,10 +678,1179 @@ public class MiniTester {
         }
 
         // Check the simulator finsihed at the right step
-        if (ScheduleSim.getSimulationStep() != 4) {
+        if (sim.getSimulationStep() != 4) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Tests the event driven engine gives the same results as the stepped one.
+     */
+    private static boolean testEventDrivenEngine() {
+        ScheduleSim stepped = new ScheduleSim();
+        Architecture steppedArchitecture = createEventTestArchitecture("Stepped");
+        if (!runTestArchitecture(stepped, steppedArchitecture)) {
+            return false;
+        }
+        int steppedFinalStep = stepped.getSimulationStep();
+
+        ScheduleSim eventDriven = new ScheduleSim();
+        eventDriven.setEventDriven(true);
+        Architecture eventArchitecture = createEventTestArchitecture("EventDriven");
+        if (!runTestArchitecture(eventDriven, eventArchitecture)) {
+            return false;
+        }
+
+        return steppedFinalStep == eventDriven.getSimulationStep()
+                && hasSameResults(steppedArchitecture, eventArchitecture);
+    }
+
+    /**
+     * Tests fast forwarding a consumer through its queue matches stepping it.
+     */
+    private static boolean testConsumerFastForward() {
+        // Includes a task of no units and sizes that end on and off step boundaries
+        int[] taskSizes = {7, 3, 0, 10, 5, 1, 12, 4, 8};
+        SimulationContext steppedContext = new SimulationContext(398);
+        Consumer stepped = createFastForwardTestConsumer(steppedContext, taskSizes);
+        SimulationContext skippedContext = new SimulationContext(398);
+        Consumer skipped = createFastForwardTestConsumer(skippedContext, taskSizes);
+
+        // Spans ending part way through tasks, on finishes and after the queue drains
+        int[] spans = {1, 3, 2, 6, 20};
+        for (int span : spans) {
+            for (int i = 0; i < span; i++) {
+                steppedContext.setStep(steppedContext.getStep() + 1);
+                stepped.step();
+            }
+            skippedContext.setStep(skippedContext.getStep() + 1);
+            skipped.skipSteps(span);
+            skippedContext.setStep(skippedContext.getStep() + span - 1);
+
+            if (stepped.getWaitingTasks().size() != skipped.getWaitingTasks().size()
+                    || stepped.getCompletedTasks().size() != skipped.getCompletedTasks().size()
+                    || stepped.getTotalUtilisation() != skipped.getTotalUtilisation()) {
+                return false;
+            }
+            for (int t = 0; t < stepped.getWaitingTasks().size(); t++) {
+                Task expected = stepped.getWaitingTasks().get(t);
+                Task actual = skipped.getWaitingTasks().get(t);
+                if (expected.getRemaingUnits() != actual.getRemaingUnits()
+                        || expected.getStepProcessingStarted() != actual.getStepProcessingStarted()) {
+                    return false;
+                }
+            }
+            for (int t = 0; t < stepped.getCompletedTasks().size(); t++) {
+                Task expected = stepped.getCompletedTasks().get(t);
+                Task actual = skipped.getCompletedTasks().get(t);
+                if (expected.getStepProcessingStarted() != actual.getStepProcessingStarted()
+                        || expected.getStepFinished() != actual.getStepFinished()) {
+                    return false;
+                }
+            }
+        }
+        return stepped.getWaitingTasks().isEmpty();
+    }
+
+    /**
+     * Tests the running delay of a consumer matches adding up its queue.
+     */
+    private static boolean testConsumerDelay() {
+        SimulationContext context = new SimulationContext(398);
+        Consumer consumer = createFastForwardTestConsumer(context, new int[]{7, 3, 0, 10, 5, 1, 12, 4, 8});
+        for (int step = 1; step <= 12; step++) {
+            if (consumer.getDelay() != scanDelay(consumer)) {
+                return false;
+            }
+            context.setStep(step);
+            if (step % 4 == 0) {
+                // Fast forward part of the way, then step again
+                consumer.skipSteps(2);
+                context.setStep(step + 1);
+                step++;
+            } else {
+                consumer.step();
+            }
+            if (step == 6) {
+                consumer.submitTask(new Task(context, 17));
+            }
+        }
+        return consumer.getDelay() == scanDelay(consumer);
+    }
+
+    /**
+     * Tests cached scheduler aggregates follow the subtree below them.
+     */
+    private static boolean testSchedulerAggregates() {
+        Architecture architecture = new Architecture("Aggregates", new SimulationContext(398));
+        Scheduler top = new RoundRobinScheduler();
+        Scheduler sub = new RoundRobinScheduler();
+        Consumer fast = new Consumer(10);
+        Consumer slow = new Consumer(2);
+        Consumer other = new Consumer(5);
+        try {
+            architecture.addEntity(new Producer("Aggregates"), top);
+            architecture.addEntity(top, sub);
+            architecture.addEntity(top, other);
+            architecture.addEntity(sub, fast);
+            architecture.addEntity(sub, slow);
+        } catch (BadParentException bpe) {
+            Log.println(bpe.getMessage());
+            return false;
+        }
+        if (top.getUnitsPerStep() != 17 || top.getDelay() != 0.0 || top.getUtilisation() != 0.0) {
+            return false;
+        }
+
+        // Work arriving below changes the delay and utilisation seen at the top
+        SimulationContext context = architecture.getContext();
+        fast.submitTask(new Task(context, 100));
+        slow.submitTask(new Task(context, 30));
+        other.submitTask(new Task(context, 80));
+        if (sub.getDelay() != 10.0 || top.getDelay() != 10.0 || top.getUtilisation() != 1.0) {
+            return false;
+        }
+
+        // As does the work being done
+        context.setStep(1);
+        fast.step();
+        slow.step();
+        other.step();
+        if (sub.getDelay() != 9.0 || top.getDelay() != 9.0) {
+            return false;
+        }
+
+        // And the tree changing
+        try {
+            architecture.addEntity(sub, new Consumer(3));
+        } catch (BadParentException bpe) {
+            Log.println(bpe.getMessage());
+            return false;
+        }
+        return sub.getUnitsPerStep() == 15 && top.getUnitsPerStep() == 20
+                && sub.getDelay() == 0.0 && top.getUtilisation() == ((2.0 / 3.0) + 1.0) / 2.0;
+    }
+
+    private static double scanDelay(Consumer consumer) {
+        double delay = 0;
+        for (Task task : consumer.getWaitingTasks()) {
+            delay += (task.getRemaingUnits() / consumer.getUnitsPerStep());
+        }
+        return delay;
+    }
+
+    private static Consumer createFastForwardTestConsumer(SimulationContext context, int[] taskSizes) {
+        Consumer consumer = new Consumer(5);
+        consumer.setContext(context);
+        for (int taskSize : taskSizes) {
+            consumer.submitTask(new Task(context, taskSize));
+        }
+        return consumer;
+    }
+
+    private static boolean hasSameResults(Architecture expected, Architecture actual) {
+        // Same makespan and utilisation
+        if (expected.getMakespan() != actual.getMakespan()
+                || expected.getUtilisation() != actual.getUtilisation()) {
+            return false;
+        }
+
+        // Same start and finish for every task
+        ArrayList<Consumer> expectedConsumers = expected.getConsumers();
+        ArrayList<Consumer> actualConsumers = actual.getConsumers();
+        for (int c = 0; c < expectedConsumers.size(); c++) {
+            List<Task> expectedTasks = expectedConsumers.get(c).getCompletedTasks();
+            List<Task> actualTasks = actualConsumers.get(c).getCompletedTasks();
+            if (expectedTasks.size() != actualTasks.size()) {
+                return false;
+            }
+            for (int t = 0; t < expectedTasks.size(); t++) {
+                if (expectedTasks.get(t).getStartUnits() != actualTasks.get(t).getStartUnits()
+                        || expectedTasks.get(t).getStepProcessingStarted() != actualTasks.get(t).getStepProcessingStarted()
+                        || expectedTasks.get(t).getStepFinished() != actualTasks.get(t).getStepFinished()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Architecture createEventTestArchitecture(String name) {
+        // Deterministic waves and scheduling so that both engines see the same tasks
+        Producer producer = new Producer("EventTest");
+        producer.addMetatask(1, new IncrementingPattern(1, 60));
+        producer.addMetatask(45, new FlatPattern(12, 37));
+        producer.addMetatask(300, new IncrementingPattern(80, 90));
+
+        Architecture architecture = new Architecture(name);
+        Scheduler scheduler = new RoundRobinScheduler();
+        try {
+            architecture.addEntity(producer, scheduler);
+            architecture.addEntity(scheduler, new Consumer(7));
+            architecture.addEntity(scheduler, new Consumer(5));
+            architecture.addEntity(scheduler, new Consumer(3));
+            architecture.addEntity(scheduler, new Consumer(1));
+        } catch (BadParentException bpe) {
+            Log.println(bpe.getMessage());
+        }
+        return architecture;
+    }
+
+    /**
+     * Tests independent simulations can run at the same time in separate threads.
+     */
+    private static boolean testConcurrentSimulations() {
+        final long seed = 398;
+
+        // Reference result, run on this thread
+        Architecture reference = createConcurrentTestArchitecture("Reference", seed);
+        if (!runTestArchitecture(new ScheduleSim(), reference)) {
+            return false;
+        }
+
+        // The same experiment several times over, all running at once
+        final Architecture[] architectures = new Architecture[4];
+        final boolean[] results = new boolean[architectures.length];
+        Thread[] threads = new Thread[architectures.length];
+        for (int i = 0; i < architectures.length; i++) {
+            final int index = i;
+            architectures[i] = createConcurrentTestArchitecture("Concurrent" + i, seed);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    results[index] = runTestArchitecture(new ScheduleSim(), architectures[index]);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException ie) {
+                return false;
+            }
+        }
+
+        // Each run should match the reference exactly
+        for (int i = 0; i < architectures.length; i++) {
+            if (!results[i]
+                    || architectures[i].getMakespan() != reference.getMakespan()
+                    || architectures[i].getUtilisation() != reference.getUtilisation()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Architecture createConcurrentTestArchitecture(String name, long seed) {
+        Producer producer = new Producer("ConcurrentTest");
+        producer.addMetatask(1, new RandomPattern(10, 200, 300));
+        producer.addMetatask(20, new GaussianPattern(2, 40, 20, 6, 4000));
+
+        // Seeded context, so every copy of the experiment draws the same randoms
+        Architecture architecture = new Architecture(name, new SimulationContext(seed));
+        Scheduler topScheduler = new RandomScheduler();
+        Scheduler subSchedulerOne = new ShoppingScheduler(4);
+        Scheduler subSchedulerTwo = new WeightedRoundRobinScheduler();
+        try {
+            architecture.addEntity(producer, topScheduler);
+            architecture.addEntity(topScheduler, subSchedulerOne);
+            architecture.addEntity(topScheduler, subSchedulerTwo);
+            for (int i = 0; i < 8; i++) {
+                architecture.addEntity(subSchedulerOne, new Consumer(4 + i));
+                architecture.addEntity(subSchedulerTwo, new Consumer(12 - i));
+            }
+        } catch (BadParentException bpe) {
+            Log.println(bpe.getMessage());
+        }
+        return architecture;
+    }
+
+    /**
+     * Tests stepping consumers in parallel gives the same results as serially.
+     */
+    private static boolean testParallelConsumerStepping() {
+        ScheduleSim serial = new ScheduleSim();
+        Architecture serialArchitecture = createWideTestArchitecture("Serial");
+        if (!runTestArchitecture(serial, serialArchitecture)) {
+            return false;
+        }
+
+        ScheduleSim parallel = new ScheduleSim();
+        parallel.setParallelConsumerThreshold(64);
+        Architecture parallelArchitecture = createWideTestArchitecture("Parallel");
+        if (!runTestArchitecture(parallel, parallelArchitecture)) {
+            return false;
+        }
+
+        return serial.getSimulationStep() == parallel.getSimulationStep()
+                && hasSameResults(serialArchitecture, parallelArchitecture);
+    }
+
+    private static Architecture createWideTestArchitecture(String name) {
+        Producer producer = new Producer("WideTest");
+        producer.addMetatask(1, new RandomPattern(10, 400, 6000));
+        producer.addMetatask(50, new RandomPattern(10, 400, 6000));
+
+        // A top scheduler over schedulers with many consumers each
+        Architecture architecture = new Architecture(name, new SimulationContext(398));
+        Scheduler topScheduler = new RoundRobinScheduler();
+        Scheduler[] subSchedulers = {new MinminScheduler(), new RandomScheduler(), new MaxminScheduler()};
+        try {
+            architecture.addEntity(producer, topScheduler);
+            for (Scheduler subScheduler : subSchedulers) {
+                architecture.addEntity(topScheduler, subScheduler);
+                for (int i = 0; i < 500; i++) {
+                    architecture.addEntity(subScheduler, new Consumer(1 + (i % 17)));
+                }
+            }
+            // A consumer directly under the top scheduler, next to the schedulers
+            architecture.addEntity(topScheduler, new Consumer(3));
+        } catch (BadParentException bpe) {
+            Log.println(bpe.getMessage());
+        }
+        return architecture;
+    }
+
+    /**
+     * Tests a parallel sweep gives the same ordered results as a serial one.
+     */
+    private static boolean testParameterSweep() {
+        ArrayList<SweepResult> parallelResults;
+        ArrayList<SweepResult> serialResults;
+        try {
+            parallelResults = createTestSweep(4).run();
+            serialResults = createTestSweep(1).run();
+        } catch (BadStepsException bse) {
+            Log.println(bse.getMessage() + " SimEntity id:" + bse.getSimEntity().getId());
+            return false;
+        } catch (BadTaskCompletionException bjce) {
+            Log.println(bjce.getMessage() + " Sent:" + bjce.getTasksSent() + " Completed:" + bjce.getTasksCompleted());
+            return false;
+        } catch (InterruptedException ie) {
+            return false;
+        }
+        ParameterSweep.printResults(parallelResults);
+
+        if (parallelResults.size() != 3 * 2 * 1 * 3 || serialResults.size() != parallelResults.size()) {
+            return false;
+        }
+        for (int i = 0; i < parallelResults.size(); i++) {
+            if (!parallelResults.get(i).toCsv().equals(serialResults.get(i).toCsv())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ParameterSweep createTestSweep(int parallelism) {
+        ParameterSweep sweep = new ParameterSweep();
+        sweep.setParallelism(parallelism);
+        sweep.setCountBins(4);
+        sweep.addScheduler("Random", new SchedulerFactory() {
+            @Override
+            public Scheduler createScheduler() {
+                return new RandomScheduler();
+            }
+        });
+        sweep.addScheduler("MinMin", new SchedulerFactory() {
+            @Override
+            public Scheduler createScheduler() {
+                return new MinminScheduler();
+            }
+        });
+        sweep.addScheduler("Weighted Robin", new SchedulerFactory() {
+            @Override
+            public Scheduler createScheduler() {
+                return new WeightedRoundRobinScheduler();
+            }
+        });
+        sweep.addConsumerMix("Even", 10, 10, 10, 10, 10, 10);
+        sweep.addConsumerMix("Mixed", 20, 16, 12, 8, 6, 2);
+        Workload workload = new Workload("RandomWaves");
+        workload.addMetatask(1, new RandomPattern(10, 100, 100));
+        workload.addMetatask(25, new RandomPattern(10, 100, 100));
+        sweep.addWorkload(workload);
+        sweep.addSeed(1);
+        sweep.addSeed(2);
+        sweep.addSeed(3);
+        return sweep;
+    }
+
+    /**
+     * Tests a run resumed from a checkpoint finishes the same as an unbroken run.
+     */
+    private static boolean testCheckpointRestore() {
+        Path checkpoint;
+        try {
+            checkpoint = Files.createTempFile("schedulesim", ".checkpoint");
+        } catch (IOException ioe) {
+            Log.println("Failed to create checkpoint file: " + ioe.getMessage());
+            return false;
+        }
+        try {
+            // Unbroken run, checkpointing periodically along the way
+            ScheduleSim unbroken = new ScheduleSim();
+            unbroken.setCheckpoint(checkpoint, 25);
+            Architecture unbrokenArchitecture = createCheckpointTestArchitecture("Unbroken");
+            if (!runTestArchitecture(unbroken, unbrokenArchitecture) || Files.size(checkpoint) == 0) {
+                return false;
+            }
+
+            // Stop a run part way through, with tasks queued and a wave to come
+            ScheduleSim stopped = new ScheduleSim();
+            stopped.setArchitecture(createCheckpointTestArchitecture("Stopped"));
+            if (stopped.runUntil(60)) {
+                return false;
+            }
+            stopped.writeCheckpoint(checkpoint);
+
+            // Resume a freshly built copy of the experiment from the checkpoint
+            ScheduleSim resumed = new ScheduleSim();
+            Architecture resumedArchitecture = createCheckpointTestArchitecture("Resumed");
+            resumed.setArchitecture(resumedArchitecture);
+            resumed.restoreCheckpoint(checkpoint);
+            if (resumed.getSimulationStep() != 60 || !runTestArchitecture(resumed, resumedArchitecture)) {
+                return false;
+            }
+
+            return unbroken.getSimulationStep() == resumed.getSimulationStep()
+                    && hasSameResults(unbrokenArchitecture, resumedArchitecture);
+        } catch (BadStepsException bse) {
+            Log.println(bse.getMessage() + " SimEntity id:" + bse.getSimEntity().getId());
+            return false;
+        } catch (IOException ioe) {
+            Log.println("Failed to checkpoint: " + ioe.getMessage());
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(checkpoint);
+            } catch (IOException ioe) {
+                Log.println("Failed to delete checkpoint file: " + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tests restoring into an architecture that has run on past the checkpoint.
+     */
+    private static boolean testCheckpointRewind() {
+        Path checkpoint;
+        try {
+            checkpoint = Files.createTempFile("schedulesim", ".checkpoint");
+        } catch (IOException ioe) {
+            Log.println("Failed to create checkpoint file: " + ioe.getMessage());
+            return false;
+        }
+        try {
+            // Unbroken run to compare against
+            ScheduleSim unbroken = new ScheduleSim();
+            Architecture unbrokenArchitecture = createRewindTestArchitecture();
+            if (!runTestArchitecture(unbroken, unbrokenArchitecture)) {
+                return false;
+            }
+
+            // Enough tasks to fill several chunks of the task table, not
+            // retained. Run on past the second wave with tasks still live.
+            ScheduleSim sim = new ScheduleSim();
+            Architecture architecture = createRewindTestArchitecture();
+            sim.setArchitecture(architecture);
+            if (sim.runUntil(20)) {
+                return false;
+            }
+            sim.writeCheckpoint(checkpoint);
+            if (sim.runUntil(60)) {
+                return false;
+            }
+
+            // Rewind and run to the end, the released chunks must be dropped
+            sim.restoreCheckpoint(checkpoint);
+            if (sim.getSimulationStep() != 20 || !runTestArchitecture(sim, architecture)) {
+                return false;
+            }
+            int allocatedChunks = architecture.getContext().getTaskTable().getAllocatedChunkCount();
+            Log.println("Chunks left after rewind: " + allocatedChunks);
+            return allocatedChunks <= 1 && architecture.getMakespan() == unbrokenArchitecture.getMakespan()
+                    && Arrays.equals(architecture.getTaskSizeBinsAverageMakespans(4),
+                            unbrokenArchitecture.getTaskSizeBinsAverageMakespans(4));
+        } catch (BadStepsException bse) {
+            Log.println(bse.getMessage() + " SimEntity id:" + bse.getSimEntity().getId());
+            return false;
+        } catch (IOException ioe) {
+            Log.println("Failed to checkpoint: " + ioe.getMessage());
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(checkpoint);
+            } catch (IOException ioe) {
+                Log.println("Failed to delete checkpoint file: " + ioe.getMessage());
+            }
+        }
+    }
+
+    private static Architecture createRewindTestArchitecture() {
+        Producer producer = new Producer("RewindTest");
+        producer.addMetatask(1, new RandomPattern(10, 50, 10000));
+        producer.addMetatask(30, new RandomPattern(10, 50, 10000));
+        Architecture architecture = new Architecture("Rewind", new SimulationContext(398));
+        Scheduler scheduler = new RoundRobinScheduler();
+        try {
+            architecture.addEntity(producer, scheduler);
+            for (int i = 0; i < 20; i++) {
+                architecture.addEntity(scheduler, new Consumer(100));
+            }
+        } catch (BadParentException bpe) {
+            Log.println(bpe.getMessage());
+        }
+        architecture.setStreamingMetrics(4, 10, 50, false);
+        return architecture;
+    }
+
+    /**
+     * Tests forks of a part run simulation carry on independently of it.
+     */
+    private static boolean testArchitectureFork() {
+        // Unbroken run to compare against
+        ScheduleSim unbroken = new ScheduleSim();
+        Architecture unbrokenArchitecture = createCheckpointTestArchitecture("Unbroken");
+        if (!runTestArchitecture(unbroken, unbrokenArchitecture)) {
+            return false;
+        }
+
+        try {
+            // Run part way, then fork one branch as is and one with a new top scheduler
+            ScheduleSim trunk = new ScheduleSim();
+            trunk.setArchitecture(createCheckpointTestArchitecture("Trunk"));
+            if (trunk.runUntil(60)) {
+                return false;
+            }
+            final Scheduler topScheduler = (Scheduler) trunk.getArchitecture().getProducer().getChildren().get(0);
+            ArrayList<ScheduleSim> branches = new ArrayList<>();
+            branches.add(trunk.fork("Same", null));
+            branches.add(trunk.fork("Minmin", new SchedulerReplacer() {
+                @Override
+                public Scheduler replaceScheduler(Scheduler scheduler) {
+                    return (scheduler == topScheduler) ? new MinminScheduler() : null;
+                }
+            }));
+            ScheduleSim.runAll(branches, 2);
+
+            // The trunk is untouched by its branches, so it finishes like the unbroken run
+            trunk.run();
+            if (trunk.getSimulationStep() != unbroken.getSimulationStep()
+                    || !hasSameResults(unbrokenArchitecture, trunk.getArchitecture())
+                    || branches.get(0).getSimulationStep() != unbroken.getSimulationStep()
+                    || !hasSameResults(unbrokenArchitecture, branches.get(0).getArchitecture())
+                    || !(branches.get(1).getArchitecture().getProducer().getChildren().get(0) instanceof MinminScheduler)) {
+                return false;
+            }
+
+            // Tasks completed before the fork are carried over to the branch
+            Task trunkTask = trunk.getArchitecture().getConsumers().get(0).getCompletedTasks().get(0);
+            Task branchTask = branches.get(1).getArchitecture().getConsumers().get(0).getCompletedTasks().get(0);
+            return trunkTask.getTid() == branchTask.getTid()
+                    && trunkTask.getStepFinished() == branchTask.getStepFinished();
+        } catch (BadParentException bpe) {
+            Log.println(bpe.getMessage());
+            return false;
+        } catch (BadStepsException bse) {
+            Log.println(bse.getMessage() + " SimEntity id:" + bse.getSimEntity().getId());
+            return false;
+        } catch (BadTaskCompletionException bjce) {
+            Log.println(bjce.getMessage() + " Sent:" + bjce.getTasksSent() + " Completed:" + bjce.getTasksCompleted());
+            return false;
+        } catch (InterruptedException ie) {
+            return false;
+        }
+    }
+
+    /**
+     * Tests results streamed as tasks complete match those from the retained tasks.
+     */
+    private static boolean testStreamingMetrics() {
+        // Results from the completed tasks
+        ScheduleSim retaining = new ScheduleSim();
+        Architecture retainingArchitecture = createCheckpointTestArchitecture("Retaining");
+        if (!runTestArchitecture(retaining, retainingArchitecture)) {
+            return false;
+        }
+        int smallestTaskUnits = Integer.MAX_VALUE;
+        int largestTaskUnits = 0;
+        for (Consumer consumer : retainingArchitecture.getConsumers()) {
+            for (Task task : consumer.getCompletedTasks()) {
+                smallestTaskUnits = Math.min(smallestTaskUnits, task.getStartUnits());
+                largestTaskUnits = Math.max(largestTaskUnits, task.getStartUnits());
+            }
+        }
+
+        // Streamed results, declaring the same task size range, with the tasks released
+        ScheduleSim streaming = new ScheduleSim();
+        Architecture streamingArchitecture = createCheckpointTestArchitecture("Streaming");
+        streamingArchitecture.setStreamingMetrics(4, smallestTaskUnits, largestTaskUnits, false);
+        if (!runTestArchitecture(streaming, streamingArchitecture)) {
+            return false;
+        }
+        for (Consumer consumer : streamingArchitecture.getConsumers()) {
+            if (!consumer.getCompletedTasks().isEmpty()) {
+                return false;
+            }
+        }
+
+        return streamingArchitecture.getStreamingMetrics().getCompletedCount()
+                        == retainingArchitecture.getProducer().getTasksSubmittedCount()
+                && streamingArchitecture.getMakespan() == retainingArchitecture.getMakespan()
+                && streamingArchitecture.getUtilisation() == retainingArchitecture.getUtilisation()
+                && Arrays.equals(streamingArchitecture.getTaskSizeBinsAverageMakespans(4),
+                        retainingArchitecture.getTaskSizeBinsAverageMakespans(4));
+    }
+
+    /**
+     * Tests the trace holds a record of each completed task and the entities above it.
+     */
+    private static boolean testTraceWriter() {
+        Path tracePath;
+        try {
+            tracePath = Files.createTempFile("schedulesim", ".trace");
+        } catch (IOException ioe) {
+            Log.println("Failed to create trace file: " + ioe.getMessage());
+            return false;
+        }
+        try {
+            ScheduleSim sim = new ScheduleSim();
+            sim.setTrace(tracePath);
+            Architecture architecture = createCheckpointTestArchitecture("Traced");
+            if (!runTestArchitecture(sim, architecture)) {
+                return false;
+            }
+
+            ByteBuffer trace = ByteBuffer.wrap(Files.readAllBytes(tracePath));
+            if (trace.getInt() != TraceWriter.MAGIC || trace.getInt() != TraceWriter.VERSION
+                    || trace.getInt() != TraceWriter.RECORD_BYTES
+                    || trace.remaining() % TraceWriter.RECORD_BYTES != 0) {
+                return false;
+            }
+            HashMap<Integer, Integer> entityParents = new HashMap<>();
+            HashMap<Integer, Task> completedTasks = new HashMap<>();
+            for (Consumer consumer : architecture.getConsumers()) {
+                for (Task task : consumer.getCompletedTasks()) {
+                    completedTasks.put(task.getTid(), task);
+                }
+            }
+            int taskRecordCount = 0;
+            while (trace.hasRemaining()) {
+                int[] record = new int[TraceWriter.RECORD_INTS];
+                for (int i = 0; i < record.length; i++) {
+                    record[i] = trace.getInt();
+                }
+                if (record[0] == TraceWriter.ENTITY_RECORD) {
+                    entityParents.put(record[1], record[2]);
+                    continue;
+                } else if (record[0] == TraceWriter.RUN_RECORD) {
+                    if (record[1] != sim.getSimulationStep() || trace.hasRemaining()) {
+                        return false;
+                    }
+                    continue;
+                }
+                // Every task record follows the records of its consumer and scheduler
+                Task task = completedTasks.get(record[1]);
+                if (task == null || record[2] != task.getStartUnits() || record[3] != task.getStepSubmitted()
+                        || record[4] != task.getStepProcessingStarted() || record[5] != task.getStepFinished()
+                        || entityParents.get(record[6]) == null || entityParents.get(record[6]) != record[7]
+                        || !entityParents.containsKey(record[7])) {
+                    return false;
+                }
+                taskRecordCount++;
+            }
+            return taskRecordCount == completedTasks.size()
+                    && taskRecordCount == architecture.getProducer().getTasksSubmittedCount()
+                    && architecture.getContext().getTrace() == null;
+        } catch (IOException ioe) {
+            Log.println("Failed to read trace: " + ioe.getMessage());
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(tracePath);
+            } catch (IOException ioe) {
+                Log.println("Failed to delete trace file: " + ioe.getMessage());
+            }
+        }
+    }
+
+    private static List<String> readTraceRecords(Path tracePath) throws IOException {
+        // Header and records, the records sorted
+        ByteBuffer trace = ByteBuffer.wrap(Files.readAllBytes(tracePath));
+        String header = trace.getInt() + "," + trace.getInt() + "," + trace.getInt();
+        List<String> records = new ArrayList<>();
+        while (trace.remaining() >= TraceWriter.RECORD_BYTES) {
+            int[] record = new int[TraceWriter.RECORD_INTS];
+            for (int i = 0; i < record.length; i++) {
+                record[i] = trace.getInt();
+            }
+            records.add(Arrays.toString(record));
+        }
+        Collections.sort(records);
+        records.add(0, header + " with " + trace.remaining() + " bytes over");
+        return records;
+    }
+
+    /**
+     * Tests a traced run restored from a checkpoint leaves the trace an unbroken run does.
+     */
+    private static boolean testTraceCheckpoint() {
+        Path unbrokenTracePath;
+        Path resumedTracePath;
+        Path checkpoint;
+        try {
+            unbrokenTracePath = Files.createTempFile("schedulesim", ".trace");
+            resumedTracePath = Files.createTempFile("schedulesim", ".trace");
+            checkpoint = Files.createTempFile("schedulesim", ".checkpoint");
+        } catch (IOException ioe) {
+            Log.println("Failed to create trace file: " + ioe.getMessage());
+            return false;
+        }
+        try {
+            ScheduleSim unbroken = new ScheduleSim();
+            unbroken.setTrace(unbrokenTracePath);
+            if (!runTestArchitecture(unbroken, createCheckpointTestArchitecture("Unbroken"))) {
+                return false;
+            }
+
+            // Checkpoint, run on past it, then rewind and finish. The records
+            // written after the checkpoint must be cut from the trace.
+            ScheduleSim resumed = new ScheduleSim();
+            resumed.setTrace(resumedTracePath);
+            Architecture resumedArchitecture = createCheckpointTestArchitecture("Resumed");
+            resumed.setArchitecture(resumedArchitecture);
+            if (resumed.runUntil(60)) {
+                return false;
+            }
+            resumed.writeCheckpoint(checkpoint);
+            if (resumed.runUntil(100)) {
+                return false;
+            }
+            resumed.restoreCheckpoint(checkpoint);
+            if (!runTestArchitecture(resumed, resumedArchitecture)) {
+                return false;
+            }
+
+            // The consumers' stepping order is not checkpointed, so records
+            // within a step can come in another order
+            return readTraceRecords(unbrokenTracePath).equals(readTraceRecords(resumedTracePath))
+                    && resumedArchitecture.getContext().getTrace() == null;
+        } catch (BadStepsException bse) {
+            Log.println(bse.getMessage() + " SimEntity id:" + bse.getSimEntity().getId());
+            return false;
+        } catch (IOException ioe) {
+            Log.println("Failed to checkpoint trace: " + ioe.getMessage());
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(unbrokenTracePath);
+                Files.deleteIfExists(resumedTracePath);
+                Files.deleteIfExists(checkpoint);
+            } catch (IOException ioe) {
+                Log.println("Failed to delete trace file: " + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tests results read back from a columnar trace match those of the run.
+     */
+    private static boolean testTraceReader() {
+        Path tracePath;
+        Path columnsPath;
+        try {
+            tracePath = Files.createTempFile("schedulesim", ".trace");
+            columnsPath = Files.createTempDirectory("schedulesim");
+        } catch (IOException ioe) {
+            Log.println("Failed to create trace file: " + ioe.getMessage());
+            return false;
+        }
+        try {
+            ScheduleSim sim = new ScheduleSim();
+            sim.setTrace(tracePath);
+            Architecture architecture = createCheckpointTestArchitecture("Traced");
+            if (!runTestArchitecture(sim, architecture)) {
+                return false;
+            }
+            TraceReader.convert(tracePath, columnsPath);
+
+            List<Integer> turnarounds = getSortedTurnarounds(architecture);
+            try (TraceReader reader = new TraceReader(columnsPath)) {
+                long sizeCount = 0;
+                PrimitiveIterator.OfInt sizes = reader.iterator(TraceReader.Column.SIZE);
+                while (sizes.hasNext()) {
+                    sizes.nextInt();
+                    sizeCount++;
+                }
+                return reader.getTaskCount() == turnarounds.size()
+                        && sizeCount == turnarounds.size()
+                        && reader.getConsumerCount() == architecture.getConsumers().size()
+                        && reader.getLastStep() == sim.getSimulationStep()
+                        && reader.getMakespan() == architecture.getMakespan()
+                        && Math.abs(reader.getUtilisation() - architecture.getUtilisation()) < 1e-9
+                        && Arrays.equals(reader.getTaskSizeBinsAverageMakespans(4),
+                                architecture.getTaskSizeBinsAverageMakespans(4))
+                        && hasSameTurnaroundPercentiles(reader, turnarounds);
+            }
+        } catch (IOException ioe) {
+            Log.println("Failed to read trace: " + ioe.getMessage());
             return false;
+        } finally {
+            deleteTraceFiles(tracePath, columnsPath);
         }
+    }
+
+    /** Tests the trace reader's percentiles of turnarounds too long to select in one pass. */
+    private static boolean testTracePercentile() {
+        Path tracePath;
+        Path columnsPath;
+        try {
+            tracePath = Files.createTempFile("schedulesim", ".trace");
+            columnsPath = Files.createTempDirectory("schedulesim");
+        } catch (IOException ioe) {
+            Log.println("Failed to create trace file: " + ioe.getMessage());
+            return false;
+        }
+        try {
+            // Tasks queued on one slow consumer, the last finishing long after
+            // 2^16 and 2^17 steps
+            Producer producer = new Producer("PercentileTest");
+            producer.addMetatask(1, new IncrementingPattern(1, 600));
+            Architecture architecture = new Architecture("PercentileTest");
+            Scheduler scheduler = new RoundRobinScheduler();
+            try {
+                architecture.addEntity(producer, scheduler);
+                architecture.addEntity(scheduler, new Consumer(1));
+            } catch (BadParentException bpe) {
+                Log.println(bpe.getMessage());
+                return false;
+            }
+            ScheduleSim sim = new ScheduleSim();
+            sim.setTrace(tracePath);
+            if (!runTestArchitecture(sim, architecture)) {
+                return false;
+            }
+            TraceReader.convert(tracePath, columnsPath);
 
+            List<Integer> turnarounds = getSortedTurnarounds(architecture);
+            try (TraceReader reader = new TraceReader(columnsPath)) {
+                return turnarounds.get(turnarounds.size() - 1) > (1 << 17)
+                        && hasSameTurnaroundPercentiles(reader, turnarounds);
+            }
+        } catch (IOException ioe) {
+            Log.println("Failed to read trace: " + ioe.getMessage());
+            return false;
+        } finally {
+            deleteTraceFiles(tracePath, columnsPath);
+        }
+    }
+
+    /** Tests a schedule rendered from a trace is the image the architecture renders. */
+    private static boolean testTraceRender() {
+        Path tracePath;
+        Path columnsPath;
+        try {
+            tracePath = Files.createTempFile("schedulesim", ".trace");
+            columnsPath = Files.createTempDirectory("schedulesim");
+        } catch (IOException ioe) {
+            Log.println("Failed to create trace file: " + ioe.getMessage());
+            return false;
+        }
+        try {
+            ScheduleSim sim = new ScheduleSim();
+            sim.setTrace(tracePath);
+            Architecture architecture = createCheckpointTestArchitecture("Rendered");
+            if (!runTestArchitecture(sim, architecture)) {
+                return false;
+            }
+            TraceReader.convert(tracePath, columnsPath);
+
+            BufferedImage fromArchitecture = new RenderSchedule(architecture).renderSchedule();
+            BufferedImage fromTrace;
+            try (TraceReader reader = new TraceReader(columnsPath)) {
+                fromTrace = new RenderSchedule(reader).renderSchedule();
+            }
+            if (fromTrace.getWidth() != fromArchitecture.getWidth()
+                    || fromTrace.getHeight() != fromArchitecture.getHeight()) {
+                return false;
+            }
+            for (int y = 0; y < fromTrace.getHeight(); y++) {
+                for (int x = 0; x < fromTrace.getWidth(); x++) {
+                    if (fromTrace.getRGB(x, y) != fromArchitecture.getRGB(x, y)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (IOException ioe) {
+            Log.println("Failed to read trace: " + ioe.getMessage());
+            return false;
+        } finally {
+            deleteTraceFiles(tracePath, columnsPath);
+        }
+    }
+
+    private static List<Integer> getSortedTurnarounds(Architecture architecture) {
+        // Turnarounds of the completed tasks, sorted for the percentiles
+        ArrayList<Integer> turnarounds = new ArrayList<>();
+        for (Consumer consumer : architecture.getConsumers()) {
+            for (Task task : consumer.getCompletedTasks()) {
+                turnarounds.add(task.getStepFinished() - task.getStepSubmitted());
+            }
+        }
+        Collections.sort(turnarounds);
+        return turnarounds;
+    }
+
+    private static boolean hasSameTurnaroundPercentiles(TraceReader reader, List<Integer> turnarounds) {
+        // Nearest rank percentiles, from the sorted turnarounds
+        double[] percentiles = {0.1, 1.0, 10.0, 25.0, 50.0, 75.0, 90.0, 99.0, 99.9, 100.0};
+        for (double percentile : percentiles) {
+            int rank = (int) Math.max(1, Math.ceil((percentile / 100.0) * turnarounds.size()));
+            if (reader.getTurnaroundPercentile(percentile) != turnarounds.get(rank - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void deleteTraceFiles(Path tracePath, Path columnsPath) {
+        try {
+            Files.deleteIfExists(tracePath);
+            for (TraceReader.Column column : TraceReader.Column.values()) {
+                Files.deleteIfExists(columnsPath.resolve(column.getFileName()));
+            }
+            Files.deleteIfExists(columnsPath.resolve(TraceReader.METADATA_FILE_NAME));
+            Files.deleteIfExists(columnsPath);
+        } catch (IOException ioe) {
+            Log.println("Failed to delete trace files: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Tests a workload log is replayed the same from plain and gzipped files.
+     */
+    private static boolean testReplayProducer() {
+        // Submit time, run time and processors of each job, with a header, a
+        // cancelled job and a job with only requested processors
+        String workload = "; Version: 2.2\n"
+                + ";\n"
+                + "1 100 0 30 2 -1 -1 2 30 -1 1 1 1 1 1 -1 -1 -1\n"
+                + "2 100 0 10 1 -1 -1 1 10 -1 1 1 1 1 1 -1 -1 -1\n"
+                + "3 115 0 -1 4 -1 -1 4 10 -1 5 1 1 1 1 -1 -1 -1\n"
+                + "4 125 0 20 -1 -1 -1 3 20 -1 1 1 1 1 1 -1 -1 -1\n"
+                + "\n"
+                + "5 190 0 5 1 -1 -1 1 5 -1 1 1 1 1 1 -1 -1 -1\n";
+        int[] expectedSteps = {1, 1, 3, 10};
+        int[] expectedUnits = {60, 10, 60, 5};
+        Path plainPath = null;
+        Path gzipPath = null;
+        try {
+            plainPath = Files.createTempFile("schedulesim", ".swf");
+            gzipPath = Files.createTempFile("schedulesim", ".swf.gz");
+            Files.write(plainPath, workload.getBytes(StandardCharsets.US_ASCII));
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzipPath))) {
+                out.write(workload.getBytes(StandardCharsets.US_ASCII));
+            }
+
+            for (Path path : new Path[]{plainPath, gzipPath}) {
+                ScheduleSim sim = new ScheduleSim();
+                sim.setEventDriven(true);
+                Architecture architecture = new Architecture("Replay", new SimulationContext(398));
+                ReplayProducer producer = new ReplayProducer("Replay", path, 10);
+                Scheduler scheduler = new RoundRobinScheduler();
+                architecture.addEntity(producer, scheduler);
+                architecture.addEntity(scheduler, new Consumer(5));
+                architecture.addEntity(scheduler, new Consumer(10));
+                if (!runTestArchitecture(sim, architecture)
+                        || producer.getTasksSubmittedCount() != expectedSteps.length) {
+                    return false;
+                }
+                for (Consumer consumer : architecture.getConsumers()) {
+                    for (Task task : consumer.getCompletedTasks()) {
+                        // Tids follow the jobs' order in the log
+                        if (task.getStepSubmitted() != expectedSteps[task.getTid()]
+                                || task.getStartUnits() != expectedUnits[task.getTid()]) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            return true;
+        } catch (IOException ioe) {
+            Log.println("Failed to replay workload: " + ioe.getMessage());
+            return false;
+        } catch (BadParentException bpe) {
+            Log.println(bpe.getMessage());
+            return false;
+        } finally {
+            try {
+                if (plainPath != null) {
+                    Files.deleteIfExists(plainPath);
+                }
+                if (gzipPath != null) {
+                    Files.deleteIfExists(gzipPath);
+                }
+            } catch (IOException ioe) {
+                Log.println("Failed to delete workload file: " + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tests Poisson and MMPP arrivals send about the expected load, the same stepped or event driven.
+     */
+    private static boolean testArrivalProcessProducers() {
+        // Poisson at 2 a step for 2000 steps, expect 4000 (sd 63)
+        int[] poissonCounts = new int[2];
+        // Quiet (0.5 a step) with bursts (6 a step) a sixth of the time, expect about 4250
+        int[] mmppCounts = new int[2];
+        Architecture[] poissonArchitectures = new Architecture[2];
+        Architecture[] mmppArchitectures = new Architecture[2];
+        for (int e = 0; e < 2; e++) {
+            Producer poisson = new PoissonProducer("Poisson", 2.0, new UniformTaskSizeSampler(5, 15), 1, 2000);
+            poissonArchitectures[e] = createArrivalProcessTestArchitecture(poisson);
+            Producer mmpp = new MmppProducer("MMPP", new double[]{0.5, 6.0},
+                    new double[][]{{0.99, 0.01}, {0.05, 0.95}}, new UniformTaskSizeSampler(5, 15), 1, 3000);
+            mmppArchitectures[e] = createArrivalProcessTestArchitecture(mmpp);
+            ScheduleSim poissonSim = new ScheduleSim();
+            poissonSim.setEventDriven(e == 1);
+            ScheduleSim mmppSim = new ScheduleSim();
+            mmppSim.setEventDriven(e == 1);
+            if (!runTestArchitecture(poissonSim, poissonArchitectures[e])
+                    || !runTestArchitecture(mmppSim, mmppArchitectures[e])) {
+                return false;
+            }
+            poissonCounts[e] = poisson.getTasksSubmittedCount();
+            mmppCounts[e] = mmpp.getTasksSubmittedCount();
+        }
+        Log.println("Poisson tasks: " + poissonCounts[0] + " MMPP tasks: " + mmppCounts[0]);
+        return poissonCounts[0] > 3700 && poissonCounts[0] < 4300
+                && mmppCounts[0] > 2000 && mmppCounts[0] < 7000
+                && poissonCounts[0] == poissonCounts[1] && mmppCounts[0] == mmppCounts[1]
+                && hasSameResults(poissonArchitectures[0], poissonArchitectures[1])
+                && hasSameResults(mmppArchitectures[0], mmppArchitectures[1]);
+    }
+
+    private static boolean testChildDelays() {
+        // The indexed search must pick the same children as a scan, ties
+        // included, so speeds are multiples of each other and delays few.
+        // Some delays are too small to change a makespan, so tie with 0.
+        RandomStream random = new RandomStream(398);
+        int[] speeds = {2, 4, 8};
+        for (int children : new int[]{5, 200, 2000}) {
+            int[] unitsPerStep = new int[children];
+            double[] delays = new double[children];
+            for (int i = 0; i < children; i++) {
+                unitsPerStep[i] = speeds[random.nextInt(speeds.length)];
+                delays[i] = (random.nextInt(3) == 0) ? random.nextInt(3) * 1e-20 : random.nextInt(4);
+            }
+            ChildDelays childDelays = new ChildDelays(unitsPerStep, delays);
+            for (int t = 0; t < 5000; t++) {
+                int units = 1 + random.nextInt(64);
+                int minChild = -1;
+                double minChildDelay = 0.0;
+                for (int i = 0; i < children; i++) {
+                    double taskMakespanWithChildDelay = ((double) units / (double) unitsPerStep[i]) + delays[i];
+                    if (taskMakespanWithChildDelay < minChildDelay || minChild == -1) {
+                        minChild = i;
+                        minChildDelay = taskMakespanWithChildDelay;
+                    }
+                }
+                if (childDelays.findMinChild(units) != minChild || childDelays.getMinMakespan() != minChildDelay) {
+                    return false;
+                }
+                delays[minChild] = minChildDelay;
+                childDelays.setDelay(minChild, minChildDelay);
+            }
+        }
+        return true;
+    }
+
+    private static boolean testParallelChildScan() {
+        // Split across cores the scan must pick the children a serial scan
+        // does, speeds are mostly distinct so every child is scored
+        RandomStream random = new RandomStream(398);
+        int children = 50000;
+        int[] unitsPerStep = new int[children];
+        double[] delays = new double[children];
+        for (int i = 0; i < children; i++) {
+            unitsPerStep[i] = 1 + random.nextInt(1000000);
+            delays[i] = random.nextInt(4);
+        }
+        ChildDelays serial = new ChildDelays(unitsPerStep, delays, Integer.MAX_VALUE);
+        ChildDelays parallel = new ChildDelays(unitsPerStep, delays, 1);
+        for (int t = 0; t < 2000; t++) {
+            int units = 1 + random.nextInt(1000);
+            int minChild = serial.findMinChild(units);
+            if (parallel.findMinChild(units) != minChild || parallel.getMinMakespan() != serial.getMinMakespan()) {
+                return false;
+            }
+            serial.setDelay(minChild, serial.getMinMakespan());
+            parallel.setDelay(minChild, parallel.getMinMakespan());
+        }
+        return true;
+    }
+
+    private static Architecture createArrivalProcessTestArchitecture(Producer producer) {
+        Architecture architecture = new Architecture(producer.getName(), new SimulationContext(398));
+        Scheduler scheduler = new RoundRobinScheduler();
+        try {
+            architecture.addEntity(producer, scheduler);
+            for (int i = 0; i < 4; i++) {
+                architecture.addEntity(scheduler, new Consumer(10));
+            }
+        } catch (BadParentException bpe) {
+            Log.println(bpe.getMessage());
+        }
+        return architecture;
+    }
+
+    private static Architecture createCheckpointTestArchitecture(String name) {
+        Producer producer = new Producer("CheckpointTest");
+        producer.addMetatask(1, new RandomPattern(10, 200, 200));
+        producer.addMetatask(20, new GaussianPattern(2, 40, 20, 6, 2000));
+        producer.addMetatask(120, new RandomPattern(10, 100, 100));
+
+        // Seeded and built with stateful schedulers, so their state has to survive
+        Architecture architecture = new Architecture(name, new SimulationContext(398));
+        Scheduler topScheduler = new RoundRobinScheduler();
+        Scheduler subSchedulerOne = new RandomScheduler();
+        Scheduler subSchedulerTwo = new WeightedRoundRobinScheduler();
+        Scheduler subSchedulerThree = new ShoppingScheduler(3);
+        try {
+            architecture.addEntity(producer, topScheduler);
+            architecture.addEntity(topScheduler, subSchedulerOne);
+            architecture.addEntity(topScheduler, subSchedulerTwo);
+            architecture.addEntity(topScheduler, subSchedulerThree);
+            for (int i = 0; i < 6; i++) {
+                architecture.addEntity(subSchedulerOne, new Consumer(2 + i));
+                architecture.addEntity(subSchedulerTwo, new Consumer(8 - i));
+                architecture.addEntity(subSchedulerThree, new Consumer(3 + (i % 3)));
+            }
+        } catch (BadParentException bpe) {
+            Log.println(bpe.getMessage());
+        }
+        return architecture;
+    }
+
+    private static boolean runTestArchitecture(ScheduleSim sim, Architecture architecture) {
+        sim.setArchitecture(architecture);
+        OutputOptions outputOptions = new OutputOptions();
+        outputOptions.setNoPrinting();
+        try {
+            sim.runArchitecture(outputOptions);
+        } catch (BadStepsException bse) {
+            Log.println(bse.getMessage() + " SimEntity id:" + bse.getSimEntity().getId());
+            return false;
+        } catch (BadTaskCompletionException bjce) {
+            Log.println(bjce.getMessage() + " Sent:" + bjce.getTasksSent() + " Completed:" + bjce.getTasksCompleted());
+            return false;
+        }
         return true;
     }
 
@@ -0,0 +1,279 @@
+package schedulesim;
+
+import java.io.IOException;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class MmppProducer extends Producer {
+
+  // Continuous arrivals from a Markov-modulated Poisson process, from
+  // firstStep to lastStep. The process is in one of a number of states,
+  // each with its own rate (mean tasks per step); tasks arrive in a step in
+  // a Poisson number at the rate of the state and after each step the
+  // state changes as the transition matrix says, starting in state 0. With
+  // a quiet and a busy state this gives bursty load, with one state it is
+  // a plain Poisson process (see PoissonProducer).
+  //
+  // Nothing is sampled for the empty steps. The number of steps until one
+  // with arrivals, and until the state changes, are geometric and drawn in
+  // one go, so the cost is per task rather than per step and the event
+  // driven engine skips straight to the next arrival. Metatasks can still
+  // be added alongside the process.
+  private static final double KNUTH_RATE_LIMIT = 30.0;
+
+  private final double[] rates;
+  private final double[][] transitions;
+  private final TaskSizeSampler sizes;
+  private final int firstStep;
+  private final int lastStep;
+
+  // Chance of at least one arrival in a step in each state
+  private final double[] arrivalChances;
+
+  private RandomStream arrivals;
+  private boolean started;
+  private int state;
+  // Last step before the state changes
+  private int stateLastStep;
+  // Next step with arrivals, Integer.MAX_VALUE once there are none
+  private int nextArrivalStep;
+
+  public MmppProducer(String name, double[] rates, double[][] transitions, TaskSizeSampler sizes,
+                      int firstStep, int lastStep) {
+    super(name);
+    if (rates.length == 0 || transitions.length != rates.length) {
+      throw new IllegalArgumentException("Tried to create MMPP producer without a transition row per rate");
+    }
+    for (int i = 0; i < rates.length; i++) {
+      if (rates[i] < 0.0 || Double.isNaN(rates[i])) {
+        throw new IllegalArgumentException("Tried to create MMPP producer with rate < 0");
+      }
+      if (transitions[i].length != rates.length) {
+        throw new IllegalArgumentException("Tried to create MMPP producer with a transition matrix that is not square");
+      }
+      double rowTotal = 0.0;
+      for (double transition : transitions[i]) {
+        if (transition < 0.0) {
+          throw new IllegalArgumentException("Tried to create MMPP producer with transition chance < 0");
+        }
+        rowTotal += transition;
+      }
+      if (Math.abs(rowTotal - 1.0) > 1e-9) {
+        throw new IllegalArgumentException("Tried to create MMPP producer with transition row not summing to 1");
+      }
+    }
+    if (firstStep < 1 || lastStep < firstStep) {
+      throw new IllegalArgumentException("Tried to create MMPP producer with first step < 1 or last step < first");
+    }
+    this.rates = rates.clone();
+    this.transitions = new double[transitions.length][];
+    for (int i = 0; i < transitions.length; i++) {
+      this.transitions[i] = transitions[i].clone();
+    }
+    this.sizes = sizes;
+    this.firstStep = firstStep;
+    this.lastStep = lastStep;
+    this.arrivalChances = new double[rates.length];
+    for (int i = 0; i < rates.length; i++) {
+      arrivalChances[i] = -Math.expm1(-rates[i]);
+    }
+    this.arrivals = null;
+    this.started = false;
+  }
+
+  @Override
+  public void setContext(SimulationContext context) {
+    // Arrivals have their own stream split off the producer's, so they do
+    // not shift the streams the producer's metatasks are given
+    if (super.getContext() != context) {
+      super.setContext(context);
+      arrivals = super.getRandom().split();
+      started = false;
+    }
+  }
+
+  @Override
+  public boolean isFinished() {
+    start();
+    return nextArrivalStep == Integer.MAX_VALUE && super.isFinished();
+  }
+
+  @Override
+  public int getNextMetataskStep() {
+    start();
+    int nextStep = super.getNextMetataskStep();
+    if (nextArrivalStep > super.getContext().getStep()) {
+      nextStep = Math.min(nextStep, nextArrivalStep);
+    }
+    return nextStep;
+  }
+
+  @Override
+  public void step() {
+    super.step();
+    start();
+    int step = super.getContext().getStep();
+    if (nextArrivalStep == step) {
+      int count = sampleArrivalCount(rates[state]);
+      for (int i = 0; i < count; i++) {
+        submitTask(new Task(super.getContext(), sizes.sampleUnits(arrivals)));
+      }
+      findNextArrival((long) step + 1);
+    }
+  }
+
+  @Override
+  protected SimEntity fork(SimulationContext context) {
+    MmppProducer fork = (MmppProducer) super.fork(context);
+    if (arrivals != null) {
+      fork.arrivals = arrivals.copy();
+    }
+    return fork;
+  }
+
+  @Override
+  public void writeSnapshot(SnapshotWriter out) throws IOException {
+    super.writeSnapshot(out);
+    start();
+    out.writeRandom(arrivals);
+    out.writeInt(state);
+    out.writeInt(stateLastStep);
+    out.writeInt(nextArrivalStep);
+  }
+
+  @Override
+  public void readSnapshot(SnapshotReader in) throws IOException {
+    super.readSnapshot(in);
+    arrivals = in.readRandom();
+    state = in.readInt();
+    stateLastStep = in.readInt();
+    nextArrivalStep = in.readInt();
+    started = true;
+  }
+
+  private void start() {
+    // The first arrival is found once the producer has its randomness
+    if (started) {
+      return;
+    }
+    started = true;
+    state = 0;
+    stateLastStep = clampStep(firstStep - 1 + sampleSojourn(state));
+    findNextArrival(firstStep);
+  }
+
+  private void findNextArrival(long fromStep) {
+    // The first step on or after fromStep with arrivals. If the state
+    // changes first, the search carries on from there in the new state,
+    // which is exact as the number of steps to wait has no memory.
+    long step = fromStep;
+    while (step <= lastStep) {
+      if (step > stateLastStep) {
+        state = sampleNextState(state);
+        stateLastStep = clampStep(step - 1 + sampleSojourn(state));
+      }
+      long arrivalStep = step + sampleEmptySteps(arrivalChances[state]);
+      if (arrivalStep <= stateLastStep) {
+        nextArrivalStep = (arrivalStep <= lastStep) ? (int) arrivalStep : Integer.MAX_VALUE;
+        return;
+      }
+      if (stateLastStep == Integer.MAX_VALUE) {
+        // Never leaves this state and never has another arrival
+        break;
+      }
+      step = (long) stateLastStep + 1;
+    }
+    nextArrivalStep = Integer.MAX_VALUE;
+  }
+
+  private long sampleEmptySteps(double chance) {
+    // Steps without an arrival before one with (geometric)
+    if (chance >= 1.0) {
+      return 0;
+    }
+    if (chance <= 0.0) {
+      return Integer.MAX_VALUE;
+    }
+    double steps = Math.floor(Math.log(1.0 - arrivals.nextDouble()) / Math.log1p(-chance));
+    return (long) Math.min(steps, Integer.MAX_VALUE);
+  }
+
+  private long sampleSojourn(int fromState) {
+    // Steps spent in the state, at least one (geometric)
+    double leaveChance = 1.0 - transitions[fromState][fromState];
+    if (leaveChance <= 0.0) {
+      return Integer.MAX_VALUE;
+    }
+    return 1 + sampleEmptySteps(leaveChance);
+  }
+
+  private int sampleNextState(int fromState) {
+    // One of the other states, in proportion to the chances of moving to them
+    double leaveChance = 1.0 - transitions[fromState][fromState];
+    double target = arrivals.nextDouble() * leaveChance;
+    int lastOther = fromState;
+    for (int toState = 0; toState < transitions[fromState].length; toState++) {
+      if (toState == fromState || transitions[fromState][toState] <= 0.0) {
+        continue;
+      }
+      lastOther = toState;
+      target -= transitions[fromState][toState];
+      if (target < 0.0) {
+        return toState;
+      }
+    }
+    return lastOther;
+  }
+
+  private int sampleArrivalCount(double rate) {
+    // Poisson number of arrivals, given there is at least one
+    if (rate > KNUTH_RATE_LIMIT) {
+      // The chance of none is negligible, sum smaller Poisson draws so the
+      // exponentials do not underflow
+      int count;
+      do {
+        count = 0;
+        double remaining = rate;
+        while (remaining > 0.0) {
+          double part = Math.min(remaining, KNUTH_RATE_LIMIT);
+          count += samplePoisson(part);
+          remaining -= part;
+        }
+      } while (count == 0);
+      return count;
+    }
+    // Invert the distribution from above the chance of none
+    double none = Math.exp(-rate);
+    double target = none + ((1.0 - none) * arrivals.nextDouble());
+    int count = 0;
+    double chance = none;
+    double cumulative = none;
+    while (cumulative < target && chance > 0.0) {
+      count++;
+      chance *= rate / count;
+      cumulative += chance;
+    }
+    return Math.max(1, count);
+  }
+
+  private int samplePoisson(double rate) {
+    // Knuth's method, for small rates
+    double limit = Math.exp(-rate);
+    double product = arrivals.nextDouble();
+    int count = 0;
+    while (product > limit) {
+      count++;
+      product *= arrivals.nextDouble();
+    }
+    return count;
+  }
+
+  private static int clampStep(long step) {
+    return (int) Math.min(step, Integer.MAX_VALUE);
+  }
+}
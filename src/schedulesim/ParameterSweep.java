@@ -0,0 +1,165 @@
+package schedulesim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class ParameterSweep {
+
+  // The grid, every combination of these is run
+  private final ArrayList<String> schedulerNames;
+  private final ArrayList<SchedulerFactory> schedulerFactories;
+  private final ArrayList<String> consumerMixNames;
+  private final ArrayList<int[]> consumerMixes;
+  private final ArrayList<Workload> workloads;
+  private final ArrayList<Long> seeds;
+
+  private int countBins;
+  private boolean eventDriven;
+  private int parallelism;
+
+  public ParameterSweep() {
+    this.schedulerNames = new ArrayList<>();
+    this.schedulerFactories = new ArrayList<>();
+    this.consumerMixNames = new ArrayList<>();
+    this.consumerMixes = new ArrayList<>();
+    this.workloads = new ArrayList<>();
+    this.seeds = new ArrayList<>();
+    this.countBins = 0;
+    this.eventDriven = false;
+    this.parallelism = Runtime.getRuntime().availableProcessors();
+  }
+
+  public void addScheduler(String name, SchedulerFactory schedulerFactory) {
+    schedulerNames.add(name);
+    schedulerFactories.add(schedulerFactory);
+  }
+
+  public void addConsumerMix(String name, int... unitsPerStep) {
+    consumerMixNames.add(name);
+    consumerMixes.add(unitsPerStep.clone());
+  }
+
+  public void addWorkload(Workload workload) {
+    workloads.add(workload);
+  }
+
+  public void addSeed(long seed) {
+    seeds.add(seed);
+  }
+
+  public void setCountBins(int countBins) {
+    this.countBins = countBins;
+  }
+
+  public void setEventDriven(boolean eventDriven) {
+    this.eventDriven = eventDriven;
+  }
+
+  public void setParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Tried to run sweep with parallelism < 1");
+    }
+    this.parallelism = parallelism;
+  }
+
+  public int getRunCount() {
+    return schedulerFactories.size() * consumerMixes.size() * workloads.size() * seeds.size();
+  }
+
+  public ArrayList<SweepResult> run() throws BadStepsException, BadTaskCompletionException, InterruptedException {
+    // One job per point in the grid, in scheduler, mix, workload, seed order
+    ArrayList<Callable<SweepResult>> runs = new ArrayList<>();
+    for (int s = 0; s < schedulerFactories.size(); s++) {
+      for (int m = 0; m < consumerMixes.size(); m++) {
+        for (Workload workload : workloads) {
+          for (long seed : seeds) {
+            runs.add(createRun(s, m, workload, seed));
+          }
+        }
+      }
+    }
+
+    // Each run has its own architecture and simulation context so they
+    // share nothing but the (immutable) workload description.
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      List<Future<SweepResult>> futures = pool.invokeAll(runs);
+      ArrayList<SweepResult> results = new ArrayList<>();
+      for (Future<SweepResult> future : futures) {
+        results.add(getResult(future));
+      }
+      return results;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  public static void printResults(ArrayList<SweepResult> results) {
+    Log.println("ScheduleSim Sweep Results");
+    Log.println("Scheduler,Consumer Mix,Workload,Seed,Makespan(step),Utilisation(%),Task Size Group Avg. Makespans");
+    for (SweepResult result : results) {
+      Log.println(result.toCsv());
+    }
+  }
+
+  private Callable<SweepResult> createRun(final int schedulerIndex, final int mixIndex,
+                                          final Workload workload, final long seed) {
+    return new Callable<SweepResult>() {
+      @Override
+      public SweepResult call() throws Exception {
+        String schedulerName = schedulerNames.get(schedulerIndex);
+        String consumerMixName = consumerMixNames.get(mixIndex);
+
+        // Build producer > scheduler > consumers
+        Architecture architecture = new Architecture(schedulerName + "_" + consumerMixName,
+          new SimulationContext(seed));
+        Scheduler scheduler = schedulerFactories.get(schedulerIndex).createScheduler();
+        architecture.addEntity(workload.createProducer(), scheduler);
+        for (int unitsPerStep : consumerMixes.get(mixIndex)) {
+          architecture.addEntity(scheduler, new Consumer(unitsPerStep));
+        }
+
+        ScheduleSim sim = new ScheduleSim();
+        sim.setArchitecture(architecture);
+        sim.setEventDriven(eventDriven);
+        sim.run();
+
+        double[] bins = new double[0];
+        if (countBins > 0) {
+          bins = architecture.getTaskSizeBinsAverageMakespans(countBins);
+        }
+        return new SweepResult(schedulerName, consumerMixName, workload.getName(), seed,
+          architecture.getMakespan(), architecture.getUtilisation(), bins);
+      }
+    };
+  }
+
+  private static SweepResult getResult(Future<SweepResult> future)
+    throws BadStepsException, BadTaskCompletionException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException ee) {
+      // Pass on the simulator's own exceptions as they are
+      Throwable cause = ee.getCause();
+      if (cause instanceof BadStepsException) {
+        throw (BadStepsException) cause;
+      } else if (cause instanceof BadTaskCompletionException) {
+        throw (BadTaskCompletionException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Sweep run failed", cause);
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package schedulesim;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class PoissonProducer extends MmppProducer {
+
+  // Steady open load, a Poisson number of tasks arriving each step at the
+  // given rate (mean tasks per step) from firstStep to lastStep
+  public PoissonProducer(String name, double rate, TaskSizeSampler sizes, int firstStep, int lastStep) {
+    super(name, new double[]{rate}, new double[][]{{1.0}}, sizes, firstStep, lastStep);
+  }
+}
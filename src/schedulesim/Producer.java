@@ -1,8 +1,7 @@
 package schedulesim;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map.Entry;
+import java.io.IOException;
+import java.util.Iterator;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0 International License.
@@ -14,14 +13,14 @@ import java.util.Map.Entry;
 public class Producer extends SimEntity {
 
   private final String name;
-  private HashMap<Integer, MetataskPattern> metatasks;
+  private ArrivalSchedule metatasks;
 
   private int tasksSubmittedCount;
 
   public Producer(String name) {
     super();
     this.name = name;
-    metatasks = new HashMap<>();
+    metatasks = new ArrivalSchedule();
     tasksSubmittedCount = 0;
   }
 
@@ -30,23 +29,54 @@ public class Producer extends SimEntity {
   }
 
   public void addMetatask(int step, MetataskPattern metataskPattern) {
-    metatasks.put(step, metataskPattern);
+    // Several metatasks can be added for the same step, they are sent in
+    // the order they were added
+    metatasks.add(step, metataskPattern);
+  }
+
+  public ArrivalSchedule getArrivalSchedule() {
+    return metatasks;
   }
 
   public int getTasksSubmittedCount(){
     return tasksSubmittedCount;
   }
 
+  public int getLastMetataskStep() {
+    return metatasks.lastArrivalStep();
+  }
+
   @Override
   public boolean isFinished() {
-    for (Entry<Integer, MetataskPattern> stepTask : metatasks.entrySet()) {
-      if (stepTask.getKey() > ScheduleSim.getSimulationStep()) {
-        // The there a wave of tasks to come in the future
-        return false;
-      }
-    }
-    // No more waves to come
-    return true;
+    // Finished once the last wave of tasks has been sent
+    return metatasks.lastArrivalStep() <= super.getContext().getStep();
+  }
+
+  public int getNextMetataskStep() {
+    // Step of the next wave of tasks to come, Integer.MAX_VALUE if there is none
+    return metatasks.nextArrivalStep(super.getContext().getStep());
+  }
+
+  @Override
+  protected SimEntity fork(SimulationContext context) {
+    // Patterns are only read, but the fork may be given metatasks of its own
+    Producer fork = (Producer) super.fork(context);
+    fork.metatasks = metatasks.copy();
+    return fork;
+  }
+
+  @Override
+  public void writeSnapshot(SnapshotWriter out) throws IOException {
+    // The metatasks are part of the experiment's description, rather than
+    // its state, so they come from the producer being restored into.
+    super.writeSnapshot(out);
+    out.writeInt(tasksSubmittedCount);
+  }
+
+  @Override
+  public void readSnapshot(SnapshotReader in) throws IOException {
+    super.readSnapshot(in);
+    tasksSubmittedCount = in.readInt();
   }
 
   @Override
@@ -65,15 +95,22 @@ public class Producer extends SimEntity {
   public void step() {
     super.step();
     // check if the current sim step has any task to deploy
-    MetataskPattern taskPattern = metatasks.get(ScheduleSim.getSimulationStep());
-    if (taskPattern != null) {
+    int step = super.getContext().getStep();
+    for (int i = metatasks.seek(step); i < metatasks.size() && metatasks.getStep(i) == step; i++) {
       // Place tasks on top scheduler
-      ArrayList<Task> tasks = taskPattern.generateMetatask();
-      for (Task task : tasks) {
-        // Producer has only one child, this is where the task entry the system
-        ((ConsumingEntity) super.getChildren().get(0)).submitTask(task);
-        tasksSubmittedCount++;
+      // Each wave gets its own stream split off the producer's
+      // The tasks go to the scheduler as they are created, a wave is never
+      // held in full outside the scheduler's queue
+      Iterator<Task> tasks = metatasks.getPattern(i).iterateMetatask(super.getContext(), super.getRandom().split());
+      while (tasks.hasNext()) {
+        submitTask(tasks.next());
       }
     }
   }
+
+  protected void submitTask(Task task) {
+    // Producer has only one child, this is where the task entry the system
+    ((ConsumingEntity) super.getChildren().get(0)).submitTask(task);
+    tasksSubmittedCount++;
+  }
 }
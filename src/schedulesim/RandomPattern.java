@@ -1,7 +1,7 @@
 package schedulesim;
 
-import java.util.ArrayList;
-import java.util.Random;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0 International License.
@@ -23,13 +23,24 @@ public class RandomPattern implements MetataskPattern {
   }
 
   @Override
-  public ArrayList<Task> generateMetatask() {
-    ArrayList<Task> tasks = new ArrayList<>();
-    Random random = new Random();
-    for(int i = 0; i < count; i++){
-      tasks.add(new Task(random.nextInt(end-start)+start));
-    }
-    return tasks;
+  public Iterator<Task> iterateMetatask(final SimulationContext context, final RandomStream random) {
+    return new Iterator<Task>() {
+      private int i = 0;
+
+      @Override
+      public boolean hasNext() {
+        return i < count;
+      }
+
+      @Override
+      public Task next() {
+        if(!hasNext()){
+          throw new NoSuchElementException();
+        }
+        i++;
+        return new Task(context, random.nextInt(end-start)+start);
+      }
+    };
   }
 
 
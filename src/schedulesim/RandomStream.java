@@ -0,0 +1,99 @@
+package schedulesim;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class RandomStream {
+
+  // A SplitMix64 generator, the same algorithm (and so the same numbers) as
+  // java.util.SplittableRandom. Unlike SplittableRandom its state can be read
+  // and restored, which checkpointing a simulation needs.
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+  private long seed;
+  private final long gamma;
+
+  public RandomStream(long seed) {
+    this(seed, GOLDEN_GAMMA);
+  }
+
+  public RandomStream(long seed, long gamma) {
+    this.seed = seed;
+    this.gamma = gamma;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  public long getGamma() {
+    return gamma;
+  }
+
+  public RandomStream copy() {
+    // Carries on from the same point as this stream, independently of it
+    return new RandomStream(seed, gamma);
+  }
+
+  public RandomStream split() {
+    return new RandomStream(nextLong(), mixGamma(nextSeed()));
+  }
+
+  public int nextInt() {
+    return mix32(nextSeed());
+  }
+
+  public int nextInt(int bound) {
+    if (bound <= 0) {
+      throw new IllegalArgumentException("Tried to draw random int with bound <= 0");
+    }
+    int r = mix32(nextSeed());
+    int m = bound - 1;
+    if ((bound & m) == 0) {
+      // Power of two
+      r &= m;
+    } else {
+      // Reject over-represented candidates
+      for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = mix32(nextSeed()) >>> 1) {
+      }
+    }
+    return r;
+  }
+
+  public long nextLong() {
+    return mix64(nextSeed());
+  }
+
+  public double nextDouble() {
+    return (mix64(nextSeed()) >>> 11) * DOUBLE_UNIT;
+  }
+
+  private long nextSeed() {
+    return seed += gamma;
+  }
+
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  private static int mix32(long z) {
+    z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+    return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+  }
+
+  private static long mixGamma(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    z = (z ^ (z >>> 33)) | 1L;
+    // Make sure the gamma has enough bit transitions
+    int n = Long.bitCount(z ^ (z >>> 1));
+    return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+  }
+}
@@ -67,11 +67,20 @@ public abstract class Render {
       }
     }
     
+    return getWidth(scaleStartPosition, biggestTaskWidth);
+  }
+
+  public int getWidth(int scaleStartPosition, int biggestTaskWidth){
+    // Width for a schedule whose last task finishes at biggestTaskWidth
     return (biggestTaskWidth*2) + (scaleStartPosition + (MARGIN * 2));
   }
 
   public int getHeight(){
-    return (architecture.getConsumers().size() * 2) + (MARGIN * 2);
+    return getHeight(architecture.getConsumers().size());
+  }
+
+  public int getHeight(int consumerCount){
+    return (consumerCount * 2) + (MARGIN * 2);
   }
 
   public int getScaleStartPosition(int biggestConsumerUPS){
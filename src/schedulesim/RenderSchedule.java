@@ -17,17 +17,37 @@ import javax.imageio.ImageIO;
  */
 public class RenderSchedule extends Render {
   
+  // Set when rendering from a trace rather than an architecture
+  private final TraceReader trace;
+  
   public RenderSchedule(Architecture architecture) {
     super(architecture);
+    this.trace = null;
+  }
+
+  public RenderSchedule(TraceReader trace) {
+    // Renders a run after the fact from its columnar trace, the same image
+    // as the architecture would give once the run has finished. The trace
+    // holds no waiting tasks, so there are none to widen the image by.
+    super(null);
+    this.trace = trace;
   }
 
   public void writeToFile(BufferedImage schedule) throws IOException{
     //Write image
     File outputfile = new File(super.getArchitecture().getProducer().getName() + "_" + super.getArchitecture().getName() + ".png");
+    writeToFile(schedule, outputfile);
+  }
+
+  public void writeToFile(BufferedImage schedule, File outputfile) throws IOException{
     ImageIO.write(schedule, "png", outputfile);
   }
   
   public BufferedImage renderSchedule() {
+    if (trace != null) {
+      return renderTraceSchedule();
+    }
+
     // Get sizes and measures
     int biggestConsumerUPS = super.getBiggestConsumerUPS();
     int scaleStartPosition =  super.getScaleStartPosition(biggestConsumerUPS);
@@ -36,19 +56,7 @@ public class RenderSchedule extends Render {
 
     // Create image to draw on
     BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-    // Prepare to draw on image
-    Graphics2D g = image.createGraphics();
-
-    // White background
-    g.setColor(Color.WHITE);
-    g.fillRect(0, 0, width, height);
-
-    // Draw scale across top
-    g.setColor(Color.BLACK);
-    for(int i = 0; i < width; i=i+10){
-      g.fillRect(scaleStartPosition + (i*2) + 1 , super.getMargin(), 1, 1);
-    }
+    Graphics2D g = createGraphics(image, scaleStartPosition);
     scaleStartPosition = biggestConsumerUPS + super.getMargin() + 1;
 
     // Find biggest and smallest tasks to scale shading with
@@ -73,18 +81,10 @@ public class RenderSchedule extends Render {
     Collections.sort(super.getArchitecture().getConsumers(), new ConsumingEntityMinFirstComparator());
 
     for(Consumer consumer : super.getArchitecture().getConsumers()){
-      // Draw bar to represent consumer UPS
-      g.setColor(Color.BLACK);
-      g.drawLine(super.getMargin(), consumerPos, super.getMargin() + consumer.getUnitsPerStep(), consumerPos);
-      // Draw tasks
+      drawConsumer(g, consumerPos, consumer.getUnitsPerStep());
       for(Task task : consumer.getCompletedTasks()){
-        // Draw task start dot
-        g.setColor(Color.CYAN);
-        g.fillRect(((task.getStepProcessingStarted()*2)-1) + scaleStartPosition, consumerPos, 1, 1);
-        // Draw task time line, (245 so small jobs are not white on white)
-        int shade = 245 - (int)(245 * ((task.getStartUnits() - min) / range));
-        g.setColor(new Color(shade,shade,shade));
-        g.drawLine((task.getStepProcessingStarted() *2) + scaleStartPosition, consumerPos, (task.getStepFinished()*2) + scaleStartPosition, consumerPos);
+        drawTask(g, consumerPos, scaleStartPosition, task.getStepProcessingStarted(), task.getStepFinished(),
+          task.getStartUnits(), min, range);
       }
 
       consumerPos += 2;
@@ -92,4 +92,84 @@ public class RenderSchedule extends Render {
     
     return image;
   }
+
+  private BufferedImage renderTraceSchedule() {
+    // Consumers are drawn in the order they are in the trace, which is the
+    // architecture's (its sort above is of a copy of the consumers), with
+    // each task drawn on its consumer's row in the order it was traced
+    int consumerCount = trace.getConsumerCount();
+    int biggestConsumerUPS = -1;
+    int biggestConsumerId = -1;
+    for (int i = 0; i < consumerCount; i++) {
+      biggestConsumerUPS = Math.max(biggestConsumerUPS, trace.getConsumerUnitsPerStep(i));
+      biggestConsumerId = Math.max(biggestConsumerId, trace.getConsumerId(i));
+    }
+
+    // Find the last task to finish, and biggest and smallest tasks to scale shading with
+    int stepOfLastTaskToFinish = 0;
+    int max = Integer.MIN_VALUE;
+    int min = Integer.MAX_VALUE;
+    for (long index = 0; index < trace.getTaskCount(); index++) {
+      stepOfLastTaskToFinish = Math.max(stepOfLastTaskToFinish, trace.get(TraceReader.Column.FINISH, index));
+      int units = trace.get(TraceReader.Column.SIZE, index);
+      max = Math.max(max, units);
+      min = Math.min(min, units);
+    }
+    double range = max - min;
+
+    int scaleStartPosition = super.getScaleStartPosition(biggestConsumerUPS);
+    int width = super.getWidth(scaleStartPosition, stepOfLastTaskToFinish);
+    int height = super.getHeight(consumerCount);
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = createGraphics(image, scaleStartPosition);
+
+    // Draw consumers, noting the row of each by id, then their tasks
+    int[] consumerPositions = new int[biggestConsumerId + 1];
+    int consumerPos = super.getMargin() + 2;
+    for (int i = 0; i < consumerCount; i++) {
+      drawConsumer(g, consumerPos, trace.getConsumerUnitsPerStep(i));
+      consumerPositions[trace.getConsumerId(i)] = consumerPos;
+      consumerPos += 2;
+    }
+    for (long index = 0; index < trace.getTaskCount(); index++) {
+      drawTask(g, consumerPositions[trace.get(TraceReader.Column.CONSUMER, index)], scaleStartPosition,
+        trace.get(TraceReader.Column.START, index), trace.get(TraceReader.Column.FINISH, index),
+        trace.get(TraceReader.Column.SIZE, index), min, range);
+    }
+
+    return image;
+  }
+
+  private Graphics2D createGraphics(BufferedImage image, int scaleStartPosition) {
+    // Prepare to draw on image
+    Graphics2D g = image.createGraphics();
+
+    // White background
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, image.getWidth(), image.getHeight());
+
+    // Draw scale across top
+    g.setColor(Color.BLACK);
+    for(int i = 0; i < image.getWidth(); i=i+10){
+      g.fillRect(scaleStartPosition + (i*2) + 1 , super.getMargin(), 1, 1);
+    }
+    return g;
+  }
+
+  private void drawConsumer(Graphics2D g, int consumerPos, int unitsPerStep) {
+    // Draw bar to represent consumer UPS
+    g.setColor(Color.BLACK);
+    g.drawLine(super.getMargin(), consumerPos, super.getMargin() + unitsPerStep, consumerPos);
+  }
+
+  private void drawTask(Graphics2D g, int consumerPos, int scaleStartPosition, int start, int finish, int units,
+    int min, double range) {
+    // Draw task start dot
+    g.setColor(Color.CYAN);
+    g.fillRect(((start*2)-1) + scaleStartPosition, consumerPos, 1, 1);
+    // Draw task time line, (245 so small jobs are not white on white)
+    int shade = 245 - (int)(245 * ((units - min) / range));
+    g.setColor(new Color(shade,shade,shade));
+    g.drawLine((start *2) + scaleStartPosition, consumerPos, (finish*2) + scaleStartPosition, consumerPos);
+  }
 }
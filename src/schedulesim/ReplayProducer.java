@@ -0,0 +1,203 @@
+package schedulesim;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class ReplayProducer extends Producer implements Closeable {
+
+  // Replays the jobs of a workload log in the Standard Workload Format
+  // (plain or gzipped), one task per job, submitted on the step its submit
+  // time falls in. The log is read a line ahead of the clock, so a task
+  // only exists from its submission step and memory does not grow with the
+  // length of the log. Metatasks can still be added alongside the replay.
+  //
+  // A job's units are its run time multiplied by its processors (allocated,
+  // else requested). Jobs without a run time or processor count are
+  // skipped. The first job arrives on firstStep, later ones secondsPerStep
+  // of submit time per step after it. Logs are meant to be in submit time
+  // order, a job out of order is submitted as soon as it is read.
+  private static final int SUBMIT_TIME_FIELD = 1;
+  private static final int RUN_TIME_FIELD = 3;
+  private static final int ALLOCATED_PROCESSORS_FIELD = 4;
+  private static final int REQUESTED_PROCESSORS_FIELD = 7;
+
+  private final Path workload;
+  private final int secondsPerStep;
+  private final int firstStep;
+
+  private BufferedReader reader;
+  // Lines read so far, where a fork or restored snapshot picks up from
+  private long linesRead;
+  private long firstSubmitTime;
+  // The next job to submit, if there is one
+  private boolean pending;
+  private int pendingStep;
+  private int pendingUnits;
+
+  public ReplayProducer(String name, Path workload, int secondsPerStep) throws IOException {
+    this(name, workload, secondsPerStep, 1);
+  }
+
+  public ReplayProducer(String name, Path workload, int secondsPerStep, int firstStep) throws IOException {
+    super(name);
+    if (secondsPerStep < 1) {
+      throw new IllegalArgumentException("Tried to create replay producer with seconds per step < 1");
+    }
+    if (firstStep < 1) {
+      throw new IllegalArgumentException("Tried to create replay producer with first step < 1");
+    }
+    this.workload = workload;
+    this.secondsPerStep = secondsPerStep;
+    this.firstStep = firstStep;
+    open();
+  }
+
+  @Override
+  public boolean isFinished() {
+    return !pending && super.isFinished();
+  }
+
+  @Override
+  public int getNextMetataskStep() {
+    int nextStep = super.getNextMetataskStep();
+    if (pending) {
+      // An out of order job is due on the next step
+      nextStep = Math.min(nextStep, Math.max(pendingStep, super.getContext().getStep() + 1));
+    }
+    return nextStep;
+  }
+
+  @Override
+  public void step() {
+    super.step();
+    int step = super.getContext().getStep();
+    try {
+      while (pending && pendingStep <= step) {
+        submitTask(new Task(super.getContext(), pendingUnits));
+        readNextJob();
+      }
+    } catch (IOException ioe) {
+      Log.println("Failed to read workload " + workload + ": " + ioe.getMessage());
+      pending = false;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    pending = false;
+    if (reader != null) {
+      reader.close();
+      reader = null;
+    }
+  }
+
+  @Override
+  protected SimEntity fork(SimulationContext context) {
+    // The fork reads the log for itself, from the same job on
+    ReplayProducer fork = (ReplayProducer) super.fork(context);
+    fork.reader = null;
+    try {
+      fork.seek(linesRead);
+    } catch (IOException ioe) {
+      throw new UncheckedIOException("Failed to fork replay of " + workload, ioe);
+    }
+    return fork;
+  }
+
+  @Override
+  public void writeSnapshot(SnapshotWriter out) throws IOException {
+    super.writeSnapshot(out);
+    out.writeLong(linesRead);
+  }
+
+  @Override
+  public void readSnapshot(SnapshotReader in) throws IOException {
+    super.readSnapshot(in);
+    seek(in.readLong());
+  }
+
+  private void open() throws IOException {
+    // Gzipped logs are recognised by their magic number rather than name
+    InputStream in = new BufferedInputStream(Files.newInputStream(workload));
+    in.mark(2);
+    int magic = in.read() | (in.read() << 8);
+    in.reset();
+    if (magic == GZIPInputStream.GZIP_MAGIC) {
+      in = new GZIPInputStream(in);
+    }
+    reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+    linesRead = 0;
+    firstSubmitTime = -1;
+    pending = false;
+    readNextJob();
+  }
+
+  private void seek(long lines) throws IOException {
+    // Back to the state after reading the given number of lines
+    if (reader != null) {
+      reader.close();
+    }
+    open();
+    while (pending && linesRead < lines) {
+      readNextJob();
+    }
+  }
+
+  private void readNextJob() throws IOException {
+    pending = false;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      linesRead++;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith(";")) {
+        // Blank or a header comment
+        continue;
+      }
+      String[] fields = line.split("\\s+");
+      long submitTime;
+      long runTime;
+      long processors;
+      try {
+        submitTime = Long.parseLong(fields[SUBMIT_TIME_FIELD]);
+        runTime = Long.parseLong(fields[RUN_TIME_FIELD]);
+        processors = Long.parseLong(fields[ALLOCATED_PROCESSORS_FIELD]);
+        if (processors <= 0) {
+          processors = Long.parseLong(fields[REQUESTED_PROCESSORS_FIELD]);
+        }
+      } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+        Log.println("Failed to parse workload " + workload + " line " + linesRead);
+        continue;
+      }
+      if (submitTime < 0 || runTime <= 0 || processors <= 0) {
+        // Cancelled or missing data
+        continue;
+      }
+      if (firstSubmitTime == -1) {
+        firstSubmitTime = submitTime;
+      }
+      long step = firstStep + Math.max(0, submitTime - firstSubmitTime) / secondsPerStep;
+      pendingStep = (int) Math.min(Integer.MAX_VALUE - 1, step);
+      pendingUnits = (int) Math.min(Integer.MAX_VALUE, runTime * processors);
+      pending = true;
+      return;
+    }
+    // End of the log
+    reader.close();
+  }
+}
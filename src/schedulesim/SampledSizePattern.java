@@ -0,0 +1,57 @@
+package schedulesim;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public abstract class SampledSizePattern implements MetataskPattern, TaskSizeSampler {
+
+  // A wave of count tasks, each sized by a draw from the subclass's
+  // distribution. The distributions are sampled in O(1) per task, by
+  // inverting their CDF or from an alias table, and can also size the tasks
+  // of an arrival process producer.
+  private final int count;
+
+  public SampledSizePattern(int count){
+    if(count < 0){
+      throw new IllegalArgumentException("Tried to create pattern with count < 0");
+    }
+    this.count = count;
+  }
+
+  public int getCount(){
+    return count;
+  }
+
+  @Override
+  public Iterator<Task> iterateMetatask(final SimulationContext context, final RandomStream random) {
+    return new Iterator<Task>() {
+      private int i = 0;
+
+      @Override
+      public boolean hasNext() {
+        return i < count;
+      }
+
+      @Override
+      public Task next() {
+        if(!hasNext()){
+          throw new NoSuchElementException();
+        }
+        i++;
+        return new Task(context, sampleUnits(random));
+      }
+    };
+  }
+
+  protected static int toUnits(double size){
+    // Rounded to whole units, at least one
+    return (int)Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(size)));
+  }
+}
@@ -1,8 +1,17 @@
 package schedulesim;
 
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0 International License.
@@ -16,14 +25,24 @@ public class ScheduleSim {
   // Version
   private static final String version = "1.7.0"; // Major . Minor . BugFix
 
-  // Current simulator time
-  private static int step = 0;
-
   // Experiment to run
   private Architecture architecture = null;
 
+  // Whether the clock jumps over steps in which nothing can change
+  private boolean eventDriven = false;
+
+  // Levels with at least this many consumers have them stepped in parallel
+  private int parallelConsumerThreshold = Integer.MAX_VALUE;
+
+  // Where and how often (in steps) to checkpoint the running simulation
+  private Path checkpointPath = null;
+  private int checkpointInterval = 0;
+
+  // Where to trace completed tasks to, null for no trace
+  private Path tracePath = null;
+
   // Gif output, this records the action for the gif
-  private static RenderGif gif;
+  private RenderGif gif;
   
   public static void main(String[] args) {
     Log.println("ScheduleSim " + version);
@@ -33,17 +52,152 @@ public class ScheduleSim {
   }
 
   public ScheduleSim() {
-    step = 0;
   }
 
-  public static int getSimulationStep() {
-    return step;
+  public int getSimulationStep() {
+    // The clock belongs to the simulation context of the architecture, so
+    // each architecture can be run independently of any other.
+    return architecture.getContext().getStep();
+  }
+
+  public Architecture getArchitecture() {
+    return architecture;
   }
 
   public void setArchitecture(Architecture architecture) {
     this.architecture = architecture;
   }
 
+  public boolean isEventDriven() {
+    return eventDriven;
+  }
+
+  public void setEventDriven(boolean eventDriven) {
+    // When event driven the simulator keeps stepping every entity on steps
+    // where something happens (a wave arriving or a task finishing) but jumps
+    // the clock over the steps in between. Results are identical to the
+    // stepped engine, only the gif misses the frames of the skipped steps.
+    this.eventDriven = eventDriven;
+  }
+
+  public int getParallelConsumerThreshold() {
+    return parallelConsumerThreshold;
+  }
+
+  public void setParallelConsumerThreshold(int parallelConsumerThreshold) {
+    // A consumer only touches its own queue and completed tasks when it
+    // steps, so once the schedulers of a level have been stepped the
+    // consumers of that level can be stepped on all cores. Results are the
+    // same as stepping them one at a time.
+    if (parallelConsumerThreshold < 1) {
+      throw new IllegalArgumentException("Tried to set parallel consumer threshold < 1");
+    }
+    this.parallelConsumerThreshold = parallelConsumerThreshold;
+  }
+
+  public void setCheckpoint(Path checkpointPath, int checkpointInterval) {
+    // Every checkpointInterval steps the state of the simulation is written
+    // to checkpointPath, replacing the previous checkpoint.
+    if (checkpointInterval < 1) {
+      throw new IllegalArgumentException("Tried to set checkpoint interval < 1");
+    }
+    this.checkpointPath = checkpointPath;
+    this.checkpointInterval = checkpointInterval;
+  }
+
+  public void setTrace(Path tracePath) {
+    // A record of each task is written to tracePath as it completes, see
+    // TraceWriter. The trace is opened when the run starts and closed once
+    // it finishes, so a run stopped part way carries on the same trace.
+    // Checkpoints record how far the trace had got, set the trace before
+    // restoring one and the run carries on the trace from there.
+    this.tracePath = tracePath;
+  }
+
+  public void writeCheckpoint(Path path) throws IOException {
+    // Written next to the checkpoint then moved over it, so a crash part way
+    // through writing leaves the previous checkpoint intact.
+    Path partPath = path.resolveSibling(path.getFileName() + ".part");
+    try (SnapshotWriter out = new SnapshotWriter(partPath)) {
+      architecture.writeSnapshot(out);
+      TraceWriter trace = architecture.getContext().getTrace();
+      out.writeInt(trace != null ? 1 : 0);
+      if (trace != null) {
+        trace.writeSnapshot(out);
+      }
+    }
+    try {
+      Files.move(partPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException amnse) {
+      Files.move(partPath, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  public void restoreCheckpoint(Path path) throws IOException {
+    // The architecture must be built exactly as the checkpointed one was,
+    // (same tree, same metatasks) then running it resumes from the checkpoint.
+    // A trace still open from running past the checkpoint is cut back to it.
+    closeTrace(false);
+    try (SnapshotReader in = new SnapshotReader(path)) {
+      architecture.readSnapshot(in);
+      if (in.readInt() == 1 && tracePath != null) {
+        architecture.getContext().setTrace(new TraceWriter(tracePath, in));
+      }
+    }
+  }
+
+  public ScheduleSim fork(String name, SchedulerReplacer replacer) throws BadParentException {
+    // A simulator for a fork of the architecture, taken where this one has
+    // got to, with the same settings apart from checkpointing and tracing (the
+    // fork would overwrite this run's files).
+    ScheduleSim fork = new ScheduleSim();
+    fork.setArchitecture(architecture.fork(name, replacer));
+    fork.eventDriven = eventDriven;
+    fork.parallelConsumerThreshold = parallelConsumerThreshold;
+    return fork;
+  }
+
+  public static void runAll(List<ScheduleSim> sims, int parallelism)
+    throws BadStepsException, BadTaskCompletionException, InterruptedException {
+    // Runs each simulator to the end, as many at once as parallelism allows.
+    // Forks share only completed tasks and metatask patterns, which are
+    // never written to, so they can run side by side.
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Tried to run simulations with parallelism < 1");
+    }
+    ArrayList<Callable<Void>> runs = new ArrayList<>();
+    for (final ScheduleSim sim : sims) {
+      runs.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          sim.run();
+          return null;
+        }
+      });
+    }
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      for (Future<Void> future : pool.invokeAll(runs)) {
+        try {
+          future.get();
+        } catch (ExecutionException ee) {
+          // Pass on the simulator's own exceptions as they are
+          Throwable cause = ee.getCause();
+          if (cause instanceof BadStepsException) {
+            throw (BadStepsException) cause;
+          } else if (cause instanceof BadTaskCompletionException) {
+            throw (BadTaskCompletionException) cause;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          throw new IllegalStateException("Simulation run failed", cause);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   public void runArchitecture(OutputOptions outputOptions) throws BadStepsException, BadTaskCompletionException {
     // Print results header
     printResultsHeader(outputOptions);
@@ -56,15 +210,7 @@ public class ScheduleSim {
     }
 
     // Run experiment
-    while (!isExperimentFinsihed(architecture)) {
-      stepSimulator(architecture);
-    }
-
-    // Check simulation step integrity
-    checkStepIntegrity(architecture);
-
-    // Check task completion integrity
-    checkTaskCompletedIntegrity(architecture);
+    run();
 
     // Output results
     printResult(outputOptions);
@@ -85,27 +231,143 @@ public class ScheduleSim {
     }
   }
 
-  private boolean isExperimentFinsihed(Architecture architecture) {
-    // Check whether the consumer and schedulers are finished
-    for (ConsumingEntity consumingEntity : architecture.getConsumingEntities()) {
-      if (!consumingEntity.isFinished()) {
-        return false;
+  public void run() throws BadStepsException, BadTaskCompletionException {
+    // Runs the experiment without producing any output, results are read from
+    // the architecture afterwards.
+    runUntil(Integer.MAX_VALUE);
+
+    // Check task completion integrity
+    checkTaskCompletedIntegrity(architecture);
+  }
+
+  public boolean runUntil(int stopStep) throws BadStepsException {
+    // Runs the experiment until it finishes or the clock reaches stopStep,
+    // returns whether it finished. A stopped run can be checkpointed or
+    // carried on with another call.
+    int lastCheckpointStep = architecture.getContext().getStep();
+    if (tracePath != null && architecture.getContext().getTrace() == null) {
+      try {
+        TraceWriter trace = new TraceWriter(tracePath);
+        trace.writeEntities(architecture);
+        architecture.getContext().setTrace(trace);
+      } catch (IOException ioe) {
+        Log.println("Failed to open trace: " + ioe.getMessage());
+      }
+    }
+    // The trace is left open for a run that stops to carry on, it is closed
+    // when the run finishes or fails part way
+    boolean stopped = false;
+    boolean finished = false;
+    try {
+      while (!isExperimentFinsihed(architecture)) {
+        if (architecture.getContext().getStep() >= stopStep) {
+          stopped = true;
+          return false;
+        }
+        if (eventDriven) {
+          skipToNextEvent(architecture, stopStep);
+        }
+        stepSimulator(architecture);
+
+        // Checkpoint if an interval boundary has been reached (or jumped over)
+        int step = architecture.getContext().getStep();
+        if (checkpointPath != null && (step / checkpointInterval) > (lastCheckpointStep / checkpointInterval)) {
+          try {
+            writeCheckpoint(checkpointPath);
+          } catch (IOException ioe) {
+            Log.println("Failed to write checkpoint: " + ioe.getMessage());
+          }
+          lastCheckpointStep = step;
+        }
+      }
+      finished = true;
+    } finally {
+      if (!stopped) {
+        closeTrace(finished);
       }
     }
+
+    // Check simulation step integrity
+    checkStepIntegrity(architecture);
+    return true;
+  }
+
+  private void closeTrace(boolean runFinished) {
+    TraceWriter trace = architecture.getContext().getTrace();
+    if (trace != null) {
+      if (runFinished) {
+        trace.runFinished(architecture.getContext().getStep());
+      }
+      try {
+        trace.close();
+      } catch (IOException ioe) {
+        Log.println("Failed to close trace: " + ioe.getMessage());
+      }
+      architecture.getContext().setTrace(null);
+    }
+  }
+
+  private boolean isExperimentFinsihed(Architecture architecture) {
+    // Check whether the consumer and schedulers are finished, the context
+    // keeps count of the entities still holding tasks.
+    if (architecture.getContext().getBusyEntityCount() > 0) {
+      return false;
+    }
     // Lastly check for tasks that haven't been sent yet
     return architecture.getProducer().isFinished();
   }
 
   private void stepSimulator(Architecture architecture) {
-    step++;
+    SimulationContext context = architecture.getContext();
+    context.setStep(context.getStep() + 1);
     stepProducer(architecture);
     stepConsumingEntities(architecture/*,gif*/);
     if(gif!=null){
       gif.setArchitecture(architecture);
-      gif.renderFrame(step);
+      gif.renderFrame(context.getStep());
     }
   }
 
+  private void skipToNextEvent(Architecture architecture, int stopStep) {
+    // Find the next step on which new work can enter. That is the next wave
+    // of tasks from the producer or, once there are no more waves, the step
+    // the last consumer drains its queue on. Never skip past the stop step.
+    int lastDrainStep = 0;
+    for (ConsumingEntity consumingEntity : architecture.getConsumingEntities()) {
+      if (consumingEntity.isFinished()) {
+        continue;
+      }
+      if (!(consumingEntity instanceof Consumer)) {
+        // A scheduler still holds tasks, so the next step has to be simulated
+        return;
+      }
+      lastDrainStep = Math.max(lastDrainStep, ((Consumer) consumingEntity).getDrainStep());
+    }
+    int nextEventStep = architecture.getProducer().getNextMetataskStep();
+    if (nextEventStep == Integer.MAX_VALUE) {
+      nextEventStep = lastDrainStep;
+    }
+    nextEventStep = Math.min(nextEventStep, stopStep);
+
+    // The steps before the next event only see consumers working through
+    // their queues, which they fast forward through in one go.
+    SimulationContext context = architecture.getContext();
+    int stepsToSkip = nextEventStep - context.getStep() - 1;
+    if (stepsToSkip <= 0) {
+      return;
+    }
+
+    // Entities see the clock on the first skipped step (so tasks starting in
+    // the gap get the right start step) and the clock is then moved on to the
+    // last skipped step, leaving the event step to be stepped normally.
+    context.setStep(context.getStep() + 1);
+    architecture.getProducer().skipSteps(stepsToSkip);
+    for (ConsumingEntity consumingEntity : architecture.getConsumingEntities()) {
+      consumingEntity.skipSteps(stepsToSkip);
+    }
+    context.setStep(context.getStep() + stepsToSkip - 1);
+  }
+
   private void stepProducer(Architecture architecture) {
     architecture.getProducer().step();
   }
@@ -122,24 +384,82 @@ public class ScheduleSim {
     // from the producer to a consumer through any number of schedulers in a
     // single time step. To avoid the randomness preventing consumer transvering
     // fully each tier of network is stepped randomly.
-    // In short like Breadth First crossed with Random in term of tree search
-    ArrayList<ConsumingEntity> firstLayer = architecture.getProducer().getChildren(); // only one
-    stepBreadthFirstRandnom(firstLayer, architecture);
-  }
-
-  private void stepBreadthFirstRandnom(ArrayList<ConsumingEntity> entities, Architecture architecture) {
-    Collections.shuffle(entities);
-    ArrayList<ConsumingEntity> nextLayer = new ArrayList<>();
-    for (ConsumingEntity entity : entities) {
-      if (entity instanceof Scheduler) {
-        nextLayer.addAll(((Scheduler) entity).getChildren());
-        ((Scheduler) entity).setArchitecture(architecture);
+    // In short like Breadth First crossed with Random in term of tree search.
+    // The architecture keeps the tiers compiled, so each step only shuffles
+    // the order the entities of a tier are stepped in.
+    ConsumingEntity[][] levels = architecture.getLevels();
+    int[][] levelOrders = architecture.getLevelOrders();
+    Consumer[][] levelConsumers = architecture.getLevelConsumers();
+    RandomStream random = architecture.getContext().getRandom();
+    for (int l = 0; l < levels.length; l++) {
+      ConsumingEntity[] level = levels[l];
+      int[] levelOrder = levelOrders[l];
+      shuffle(levelOrder, random);
+      if (levelConsumers[l].length < parallelConsumerThreshold) {
+        for (int i = 0; i < levelOrder.length; i++) {
+          ConsumingEntity entity = level[levelOrder[i]];
+          entity.step();
+          entity.updateBusy();
+        }
+      } else {
+        // Schedulers first, in the shuffled order, then the consumers
+        // which only depend on what the level above sent them.
+        for (int i = 0; i < levelOrder.length; i++) {
+          ConsumingEntity entity = level[levelOrder[i]];
+          if (!(entity instanceof Consumer)) {
+            entity.step();
+            entity.updateBusy();
+          }
+        }
+        Consumer[] consumers = levelConsumers[l];
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int grain = Math.max(256, consumers.length / (4 * pool.getParallelism()));
+        pool.invoke(new StepConsumersAction(consumers, 0, consumers.length, grain));
+        // The busy count belongs to the context, update it from this thread
+        for (Consumer consumer : consumers) {
+          consumer.updateBusy();
+        }
       }
-      entity.step();
     }
+  }
+
+  private static class StepConsumersAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Consumer[] consumers;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    StepConsumersAction(Consumer[] consumers, int from, int to, int grain) {
+      this.consumers = consumers;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= grain) {
+        for (int i = from; i < to; i++) {
+          consumers[i].step();
+        }
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new StepConsumersAction(consumers, from, middle, grain),
+                  new StepConsumersAction(consumers, middle, to, grain));
+      }
+    }
+  }
 
-    if (!nextLayer.isEmpty()) {
-      stepBreadthFirstRandnom(nextLayer, architecture);
+  private static void shuffle(int[] order, RandomStream random) {
+    // Fisher-Yates, as Collections.shuffle but in place on the order
+    for (int i = order.length; i > 1; i--) {
+      int j = random.nextInt(i);
+      int swap = order[i - 1];
+      order[i - 1] = order[j];
+      order[j] = swap;
     }
   }
 
@@ -161,7 +481,7 @@ public class ScheduleSim {
     // the number of tasks ompleted by the consumers
     int consumerCompletedTaskCount = 0;
     for (Consumer consumer : architecture.getConsumers()) {
-      consumerCompletedTaskCount += consumer.getCompletedTasks().size();
+      consumerCompletedTaskCount += consumer.getCompletedTaskCount();
     }
     if (consumerCompletedTaskCount != architecture.getProducer().getTasksSubmittedCount()) {
       throw new BadTaskCompletionException("Task completed did not match the number of task sent!",
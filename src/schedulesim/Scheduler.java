@@ -10,11 +10,31 @@ package schedulesim;
 public abstract class Scheduler extends ConsumingEntity {
 
   private Architecture architecture;
+
+  // Aggregates over the subtree below, cached until something below changes.
+  // The units per step only change with the tree, the utilisation and delay
+  // also change as tasks arrive and are worked on. A change marks each
+  // scheduler above it dirty, stopping at one already dirty, so the
+  // ancestors of a dirty scheduler are always dirty too.
+  private int unitsPerStep;
+  private boolean unitsPerStepDirty;
+  private double utilisation;
+  private double delay;
+  private boolean stateDirty;
   
   public Scheduler(){
     super();
+    this.unitsPerStepDirty = true;
+    this.stateDirty = true;
   }
   
+  @Override
+  protected SimEntity fork(SimulationContext context) {
+    Scheduler fork = (Scheduler) super.fork(context);
+    fork.architecture = null;
+    return fork;
+  }
+
   public void setArchitecture(Architecture architecture){
     this.architecture = architecture;
   }
@@ -23,38 +43,91 @@ public abstract class Scheduler extends ConsumingEntity {
     architecture.updateGif();
   }
   
+  @Override
+  public void addChild(ConsumingEntity entity) {
+    super.addChild(entity);
+    childTopologyChanged();
+  }
+
+  @Override
+  public void removeChild(ConsumingEntity entity) {
+    super.removeChild(entity);
+    childTopologyChanged();
+  }
+
+  void childTopologyChanged() {
+    Scheduler scheduler = this;
+    while(scheduler != null && !(scheduler.unitsPerStepDirty && scheduler.stateDirty)){
+      scheduler.unitsPerStepDirty = true;
+      scheduler.stateDirty = true;
+      scheduler = scheduler.getParentScheduler();
+    }
+  }
+
+  void childStateChanged() {
+    // Called by consumers as they work, possibly from several threads at
+    // once. They only ever set the flags, which is safe to race on.
+    Scheduler scheduler = this;
+    while(scheduler != null && !scheduler.stateDirty){
+      scheduler.stateDirty = true;
+      scheduler = scheduler.getParentScheduler();
+    }
+  }
+
+  private Scheduler getParentScheduler() {
+    if(super.getParent() instanceof Scheduler){
+      return (Scheduler)super.getParent();
+    }
+    return null;
+  }
+
   @Override
   public int getUnitsPerStep() {
-    // Find the fastest UPS
-    int totalUPS = 0;
-    for(ConsumingEntity entity : this.getChildren()){
-        totalUPS += entity.getUnitsPerStep();
+    // Total UPS of the children
+    if(unitsPerStepDirty){
+      int totalUPS = 0;
+      for(ConsumingEntity entity : this.getChildren()){
+          totalUPS += entity.getUnitsPerStep();
+      }
+      unitsPerStep = totalUPS;
+      unitsPerStepDirty = false;
     }
-    return totalUPS;
+    return unitsPerStep;
   }
 
   @Override
   public double getUtilisation() {
-    // Find a consumer with utilisation 0.0 if there is one
-    double totalUtil = 0.0;
-    for(ConsumingEntity entity : this.getChildren()){
-        totalUtil += entity.getUtilisation();
-    }
-    if(this.getChildren().size() > 0){
-      totalUtil /= this.getChildren().size();
+    // Mean utilisation of the children
+    if(stateDirty){
+      updateState();
     }
-    return totalUtil;
+    return utilisation;
   }
 
   @Override
   public double getDelay() {
-    // Find the consumer with the shortest delay
-    double shortestDelay = 0;
+    // The shortest delay of the children, the soonest a task sent down this
+    // subtree could be started on. 0 if there are no children.
+    if(stateDirty){
+      updateState();
+    }
+    return delay;
+  }
+
+  private void updateState() {
+    double totalUtil = 0.0;
+    double shortestDelay = Double.MAX_VALUE;
     for(ConsumingEntity entity : this.getChildren()){
-      if(shortestDelay > entity.getDelay()){
-        shortestDelay = entity.getDelay();
-      }
+      totalUtil += entity.getUtilisation();
+      shortestDelay = Math.min(shortestDelay, entity.getDelay());
+    }
+    if(this.getChildren().size() > 0){
+      totalUtil /= this.getChildren().size();
+    } else {
+      shortestDelay = 0.0;
     }
-    return shortestDelay;
+    utilisation = totalUtil;
+    delay = shortestDelay;
+    stateDirty = false;
   }
 }
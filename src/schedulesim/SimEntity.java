@@ -1,5 +1,6 @@
 package schedulesim;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -9,17 +10,20 @@ import java.util.ArrayList;
  * 
  * @author paul moggridge (paulmogs398@gmail.com)
  */
-public abstract class SimEntity {
+public abstract class SimEntity implements Cloneable {
 
-  private static int StaticId = 0;
-  private final int id;
+  private int id;
+  private SimulationContext context;
+  private RandomStream random;
   private SimEntity parent;
   private ArrayList<ConsumingEntity> children;
 
   private int entityStep;
 
   public SimEntity() {
-    this.id = StaticId++;
+    this.id = -1;
+    this.context = null;
+    this.random = null;
     this.entityStep = 0;
     this.children = new ArrayList<>();
   }
@@ -32,12 +36,63 @@ public abstract class SimEntity {
     entityStep++;
   }
 
+  public void skipSteps(int steps){
+    // Used when the simulator jumps the clock over steps where nothing
+    // happens, the entity has to account for the steps it did not take.
+    entityStep += steps;
+  }
+
   public abstract boolean isFinished();
 
   public int getId() {
     return id;
   }
 
+  public SimulationContext getContext() {
+    return context;
+  }
+
+  public RandomStream getRandom() {
+    return random;
+  }
+
+  public void setContext(SimulationContext context) {
+    // Entities are given an id, and their own stream of randomness, by the
+    // simulation they join
+    if (this.context != context) {
+      this.context = context;
+      this.id = context.nextEntityId();
+      this.random = context.createRandom(id);
+    }
+  }
+
+  protected SimEntity fork(SimulationContext context) {
+    // A copy of this entity for a forked simulation, on the same step with
+    // its randomness carrying on from the same point. The copy is outside
+    // the tree until added to the forked architecture. Subclasses holding
+    // mutable objects extend this to copy them.
+    SimEntity fork;
+    try {
+      fork = (SimEntity) super.clone();
+    } catch (CloneNotSupportedException cnse) {
+      throw new IllegalStateException("Failed to fork " + getClass().getSimpleName(), cnse);
+    }
+    fork.context = context;
+    fork.random = random.copy();
+    fork.parent = null;
+    fork.children = new ArrayList<>();
+    return fork;
+  }
+
+  void takeOver(SimEntity entity, SimulationContext context) {
+    // Steps into the place of an entity in a forked simulation, taking its
+    // id, step and randomness but keeping this entity's own behaviour.
+    this.context = context;
+    this.id = entity.id;
+    this.random = entity.random.copy();
+    this.entityStep = entity.entityStep;
+  }
+
   public void addChild(ConsumingEntity entity) {
     // Does the entity already have a parent
     if (entity.getParent() == null) {
@@ -69,10 +124,21 @@ public abstract class SimEntity {
     this.parent = parent;
   }
 
+  public void writeSnapshot(SnapshotWriter out) throws IOException {
+    // Subclasses with state of their own extend this (and readSnapshot)
+    out.writeInt(entityStep);
+    out.writeRandom(random);
+  }
+
+  public void readSnapshot(SnapshotReader in) throws IOException {
+    entityStep = in.readInt();
+    random = in.readRandom();
+  }
+
   public boolean checkStep(){
     // When the simulation finishes gracefully, or at the end of a step of the
     // simulator, all the entities should be on the same step. This function
     // can be used to verify this entity is on the right step.
-    return (entityStep == ScheduleSim.getSimulationStep());
+    return (entityStep == context.getStep());
   }
 }
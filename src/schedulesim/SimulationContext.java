@@ -0,0 +1,150 @@
+package schedulesim;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class SimulationContext {
+
+  // Current simulator time
+  private int step;
+
+  // Id generators, ids are only unique within this simulation
+  private int nextTid;
+  private int nextEntityId;
+
+  // Every stream of randomness in the simulation is derived from this seed
+  private long seed;
+  // The simulator's own stream, used to shuffle the stepping order
+  private RandomStream random;
+
+  // Where the state of every task in the simulation is kept
+  private TaskTable taskTable;
+
+  // Where completed tasks are traced to, null if they are not
+  private TraceWriter trace;
+
+  // Number of consuming entities holding tasks, when this reaches zero there
+  // is nothing left in the system.
+  private int busyEntityCount;
+
+  public SimulationContext() {
+    // Unseeded, pick a seed (it can be read back to reproduce the run)
+    this(new SplittableRandom().nextLong());
+  }
+
+  public SimulationContext(long seed) {
+    this.step = 0;
+    this.nextTid = 0;
+    this.nextEntityId = 0;
+    this.seed = seed;
+    this.random = createRandom(-1);
+    this.taskTable = new TaskTable(this);
+    this.trace = null;
+    this.busyEntityCount = 0;
+  }
+
+  public int getStep() {
+    return step;
+  }
+
+  public void setStep(int step) {
+    this.step = step;
+  }
+
+  public int nextTid() {
+    return nextTid++;
+  }
+
+  public int nextEntityId() {
+    return nextEntityId++;
+  }
+
+  public TaskTable getTaskTable() {
+    return taskTable;
+  }
+
+  public TraceWriter getTrace() {
+    return trace;
+  }
+
+  public void setTrace(TraceWriter trace) {
+    this.trace = trace;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  public RandomStream getRandom() {
+    return random;
+  }
+
+  public RandomStream createRandom(long streamId) {
+    // An independent stream for the given id (entities use their id). It
+    // depends only on the seed and the id, never on the order in which
+    // streams are created or which thread uses them, so runs reproduce.
+    return new RandomStream(mix(seed ^ mix(streamId)));
+  }
+
+  public SimulationContext fork(int firstUnfinishedTid) {
+    // A context for a forked simulation, carrying on from the same point.
+    // Tasks before the first unfinished one are shared with the fork. The
+    // busy count starts at zero, entities recount themselves as the forked
+    // tree is built. The fork is not traced.
+    SimulationContext fork = new SimulationContext(seed);
+    fork.step = step;
+    fork.nextTid = nextTid;
+    fork.nextEntityId = nextEntityId;
+    fork.random = random.copy();
+    fork.taskTable = taskTable.fork(fork, firstUnfinishedTid);
+    return fork;
+  }
+
+  public void writeSnapshot(SnapshotWriter out) throws IOException {
+    out.writeInt(step);
+    out.writeInt(nextTid);
+    out.writeInt(nextEntityId);
+    out.writeLong(seed);
+    out.writeRandom(random);
+  }
+
+  public void readSnapshot(SnapshotReader in) throws IOException {
+    // The busy count is not restored, entities recount themselves. Tasks
+    // are too, each entity writes the tasks it holds back into the table.
+    taskTable.clear();
+    step = in.readInt();
+    nextTid = in.readInt();
+    nextEntityId = in.readInt();
+    seed = in.readLong();
+    random = in.readRandom();
+  }
+
+  private static long mix(long value) {
+    // MurmurHash3 finaliser, spreads nearby seeds and ids far apart
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+
+  public int getBusyEntityCount() {
+    return busyEntityCount;
+  }
+
+  void entityBecameBusy() {
+    busyEntityCount++;
+  }
+
+  void entityBecameIdle() {
+    busyEntityCount--;
+  }
+}
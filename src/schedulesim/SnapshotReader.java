@@ -0,0 +1,80 @@
+package schedulesim;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class SnapshotReader implements Closeable {
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+
+  public SnapshotReader(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    buffer = ByteBuffer.allocateDirect(SnapshotWriter.BUFFER_SIZE);
+    buffer.limit(0);
+    if (readInt() != SnapshotWriter.MAGIC) {
+      channel.close();
+      throw new IOException("Not a ScheduleSim snapshot: " + path);
+    }
+    int version = readInt();
+    if (version != SnapshotWriter.VERSION) {
+      channel.close();
+      throw new IOException("Unsupported snapshot version " + version + ": " + path);
+    }
+  }
+
+  public int readInt() throws IOException {
+    ensureAvailable(Integer.BYTES);
+    return buffer.getInt();
+  }
+
+  public long readLong() throws IOException {
+    ensureAvailable(Long.BYTES);
+    return buffer.getLong();
+  }
+
+  public RandomStream readRandom() throws IOException {
+    long seed = readLong();
+    long gamma = readLong();
+    return new RandomStream(seed, gamma);
+  }
+
+  public Task readTask(SimulationContext context) throws IOException {
+    int tid = readInt();
+    int startUnits = readInt();
+    int remainingUnits = readInt();
+    int stepSubmitted = readInt();
+    int stepProcessingStarted = readInt();
+    int stepFinished = readInt();
+    return new Task(context, tid, startUnits, remainingUnits, stepSubmitted, stepProcessingStarted, stepFinished);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private void ensureAvailable(int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      buffer.compact();
+      while (buffer.position() < bytes) {
+        if (channel.read(buffer) < 0) {
+          throw new EOFException("Snapshot ended unexpectedly");
+        }
+      }
+      buffer.flip();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package schedulesim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class SnapshotWriter implements Closeable {
+
+  static final int MAGIC = 0x5353494D; // "SSIM"
+  static final int VERSION = 1;
+  static final int BUFFER_SIZE = 1 << 20;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+
+  public SnapshotWriter(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING);
+    buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    writeInt(MAGIC);
+    writeInt(VERSION);
+  }
+
+  public void writeInt(int value) throws IOException {
+    ensureSpace(Integer.BYTES);
+    buffer.putInt(value);
+  }
+
+  public void writeLong(long value) throws IOException {
+    ensureSpace(Long.BYTES);
+    buffer.putLong(value);
+  }
+
+  public void writeRandom(RandomStream random) throws IOException {
+    writeLong(random.getSeed());
+    writeLong(random.getGamma());
+  }
+
+  public void writeTask(Task task) throws IOException {
+    writeInt(task.getTid());
+    writeInt(task.getStartUnits());
+    writeInt(task.getRemaingUnits());
+    writeInt(task.getStepSubmitted());
+    writeInt(task.getStepProcessingStarted());
+    writeInt(task.getStepFinished());
+  }
+
+  public void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+      channel.force(false);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void ensureSpace(int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      flush();
+    }
+  }
+}
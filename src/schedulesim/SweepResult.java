@@ -0,0 +1,67 @@
+package schedulesim;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class SweepResult {
+
+  private final String schedulerName;
+  private final String consumerMixName;
+  private final String workloadName;
+  private final long seed;
+  private final int makespan;
+  private final double utilisation;
+  private final double[] binsAverageMakespans;
+
+  public SweepResult(String schedulerName, String consumerMixName, String workloadName, long seed,
+                     int makespan, double utilisation, double[] binsAverageMakespans) {
+    this.schedulerName = schedulerName;
+    this.consumerMixName = consumerMixName;
+    this.workloadName = workloadName;
+    this.seed = seed;
+    this.makespan = makespan;
+    this.utilisation = utilisation;
+    this.binsAverageMakespans = binsAverageMakespans;
+  }
+
+  public String getSchedulerName() {
+    return schedulerName;
+  }
+
+  public String getConsumerMixName() {
+    return consumerMixName;
+  }
+
+  public String getWorkloadName() {
+    return workloadName;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  public int getMakespan() {
+    return makespan;
+  }
+
+  public double getUtilisation() {
+    return utilisation;
+  }
+
+  public double[] getBinsAverageMakespans() {
+    return binsAverageMakespans;
+  }
+
+  public String toCsv() {
+    String resultStr = schedulerName + "," + consumerMixName + "," + workloadName + "," + seed + ","
+      + makespan + "," + utilisation + ",";
+    for (double binAverageMakespan : binsAverageMakespans) {
+      resultStr += binAverageMakespan + ",";
+    }
+    return resultStr;
+  }
+}
@@ -9,22 +9,28 @@ package schedulesim;
  */
 public class Task {
 
-  private static int staticTid = 0;
-
+  // A view of the task's row in the simulation's task table, the state
+  // itself lives in the table. Views of the same task are equal.
+  private final TaskTable table;
   private final int tid;
 
-  private final int startUnits;
-  private int remainingUnits;
-  private final int stepSubmitted;
-  private int stepProcessingStarted;
-  private int stepFinished;
-
-  public Task(int units) {
-    this.tid = staticTid++;
-    this.startUnits = units;
-    this.remainingUnits = units;
-    this.stepSubmitted = ScheduleSim.getSimulationStep();
-    this.stepProcessingStarted = -1;
+  public Task(SimulationContext context, int units) {
+    this.table = context.getTaskTable();
+    this.tid = context.nextTid();
+    table.set(tid, units, units, context.getStep(), -1, 0);
+  }
+
+  Task(SimulationContext context, int tid, int startUnits, int remainingUnits,
+       int stepSubmitted, int stepProcessingStarted, int stepFinished) {
+    // Recreates a task from a snapshot
+    this.table = context.getTaskTable();
+    this.tid = tid;
+    table.set(tid, startUnits, remainingUnits, stepSubmitted, stepProcessingStarted, stepFinished);
+  }
+
+  Task(TaskTable table, int tid) {
+    this.table = table;
+    this.tid = tid;
   }
 
   public int getTid() {
@@ -32,48 +38,55 @@ public class Task {
   }
 
   public int decrementUnits(int units) {
-    if (stepProcessingStarted == -1) {
-      stepProcessingStarted = ScheduleSim.getSimulationStep();
-    }
+    return table.decrementUnits(tid, units);
+  }
 
-    if ((remainingUnits - units) > 0) {
-      // The units from the consumer where completely used up
-      this.remainingUnits -= units;
-      return 0;
-    } else {
-      // The units from the consumer were not completed used up, there some process
-      // units left over for another task to use.
-      int unUsedUnits = (units - remainingUnits);
-      // This task is finished
-      this.remainingUnits = 0;
-      this.stepFinished = ScheduleSim.getSimulationStep();
-      // return the un used consumer unit so the next task on the consumer can
-      // use them.
-      return unUsedUnits;
-    }
+  void fastForward(int units, int stepStarted, int stepFinished) {
+    // Applies units worked over a run of skipped steps in one go, the steps
+    // it started and finished on (-1 if it did not finish) worked out by the
+    // consumer. Never more units than remain.
+    table.fastForward(tid, units, stepStarted, stepFinished);
+  }
+
+  TaskTable getTable() {
+    return table;
   }
 
   public boolean isFinished() {
-    return (remainingUnits == 0);
+    return (table.getRemainingUnits(tid) == 0);
   }
 
   public int getStartUnits() {
-    return startUnits;
+    return table.getStartUnits(tid);
   }
 
   public int getRemaingUnits() {
-    return remainingUnits;
+    return table.getRemainingUnits(tid);
   }
 
   public int getStepSubmitted() {
-    return stepSubmitted;
+    return table.getStepSubmitted(tid);
   }
 
   public int getStepProcessingStarted(){
-    return stepProcessingStarted;
+    return table.getStepProcessingStarted(tid);
   }
 
   public int getStepFinished() {
-    return stepFinished;
+    return table.getStepFinished(tid);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (!(object instanceof Task)) {
+      return false;
+    }
+    Task task = (Task) object;
+    return table == task.table && tid == task.tid;
+  }
+
+  @Override
+  public int hashCode() {
+    return tid;
   }
 }
@@ -0,0 +1,88 @@
+package schedulesim;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+class TaskHistory extends AbstractList<Task> {
+
+  // Completed tasks, kept as tids in fixed size segments and read back as
+  // views of the task table. Full segments are never written to again, so
+  // a fork shares them with the history it was forked from and only copies
+  // the segment being filled.
+  private static final int SEGMENT_SIZE = 1024;
+
+  private TaskTable table;
+  private final ArrayList<int[]> segments;
+  private int[] tail;
+  private int tailSize;
+
+  TaskHistory() {
+    this.table = null;
+    this.segments = new ArrayList<>();
+    this.tail = new int[SEGMENT_SIZE];
+    this.tailSize = 0;
+  }
+
+  private TaskHistory(TaskHistory history, TaskTable table) {
+    this.table = table;
+    this.segments = new ArrayList<>(history.segments);
+    this.tail = Arrays.copyOf(history.tail, SEGMENT_SIZE);
+    this.tailSize = history.tailSize;
+  }
+
+  TaskHistory fork(TaskTable table) {
+    // The fork reads the tasks from the forked simulation's table
+    return new TaskHistory(this, table);
+  }
+
+  @Override
+  public boolean add(Task task) {
+    table = task.getTable();
+    tail[tailSize++] = task.getTid();
+    if (tailSize == SEGMENT_SIZE) {
+      segments.add(tail);
+      tail = new int[SEGMENT_SIZE];
+      tailSize = 0;
+    }
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public Task get(int index) {
+    return table.getTask(getTid(index));
+  }
+
+  int getTid(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+    int segment = index / SEGMENT_SIZE;
+    if (segment == segments.size()) {
+      return tail[index % SEGMENT_SIZE];
+    }
+    return segments.get(segment)[index % SEGMENT_SIZE];
+  }
+
+  @Override
+  public int size() {
+    return (segments.size() * SEGMENT_SIZE) + tailSize;
+  }
+
+  @Override
+  public void clear() {
+    // Segments may be shared with forks, so drop them rather than empty them
+    segments.clear();
+    tail = new int[SEGMENT_SIZE];
+    tailSize = 0;
+    modCount++;
+  }
+}
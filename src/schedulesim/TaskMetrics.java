@@ -0,0 +1,159 @@
+package schedulesim;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class TaskMetrics {
+
+  // Results of completed tasks, updated as each task completes so the tasks
+  // themselves need not be kept. Task sizes are put in equal width bins over
+  // a range declared up front, sizes outside the range go in the end bins.
+  // Metrics with the same bins can be merged, so each consumer keeps its own
+  // and they are combined at the end.
+  private final int binCount;
+  private final int smallestTaskUnits;
+  private final int largestTaskUnits;
+  private final double binWidth;
+
+  private long completedCount;
+  private int firstSubmissionStep;
+  private int lastFinishStep;
+  private final long[] binTaskCounts;
+  private final long[] binTotalMakespans;
+
+  public TaskMetrics(int binCount, int smallestTaskUnits, int largestTaskUnits) {
+    if (binCount < 1) {
+      throw new IllegalArgumentException("Tried to create task metrics with bin count < 1");
+    }
+    if (largestTaskUnits < smallestTaskUnits) {
+      throw new IllegalArgumentException("Tried to create task metrics with largest task units < smallest");
+    }
+    this.binCount = binCount;
+    this.smallestTaskUnits = smallestTaskUnits;
+    this.largestTaskUnits = largestTaskUnits;
+    this.binWidth = ((double) (largestTaskUnits - smallestTaskUnits) / (double) binCount);
+    this.completedCount = 0;
+    this.firstSubmissionStep = -1;
+    this.lastFinishStep = -1;
+    this.binTaskCounts = new long[binCount];
+    this.binTotalMakespans = new long[binCount];
+  }
+
+  public TaskMetrics copy() {
+    TaskMetrics copy = new TaskMetrics(binCount, smallestTaskUnits, largestTaskUnits);
+    copy.merge(this);
+    return copy;
+  }
+
+  public void record(Task task) {
+    record(task.getStartUnits(), task.getStepSubmitted(), task.getStepFinished());
+  }
+
+  public void record(int startUnits, int stepSubmitted, int stepFinished) {
+    completedCount++;
+    if (stepSubmitted < firstSubmissionStep || firstSubmissionStep == -1) {
+      firstSubmissionStep = stepSubmitted;
+    }
+    if (stepFinished > lastFinishStep) {
+      lastFinishStep = stepFinished;
+    }
+    int binIndex = getBinIndex(startUnits);
+    binTaskCounts[binIndex]++;
+    binTotalMakespans[binIndex] += stepFinished - stepSubmitted;
+  }
+
+  public void merge(TaskMetrics metrics) {
+    if (metrics.binCount != binCount || metrics.smallestTaskUnits != smallestTaskUnits
+        || metrics.largestTaskUnits != largestTaskUnits) {
+      throw new IllegalArgumentException("Tried to merge task metrics with different bins");
+    }
+    if (metrics.completedCount == 0) {
+      return;
+    }
+    if (metrics.firstSubmissionStep < firstSubmissionStep || completedCount == 0) {
+      firstSubmissionStep = metrics.firstSubmissionStep;
+    }
+    lastFinishStep = Math.max(lastFinishStep, metrics.lastFinishStep);
+    completedCount += metrics.completedCount;
+    for (int binIndex = 0; binIndex < binCount; binIndex++) {
+      binTaskCounts[binIndex] += metrics.binTaskCounts[binIndex];
+      binTotalMakespans[binIndex] += metrics.binTotalMakespans[binIndex];
+    }
+  }
+
+  public int getBinCount() {
+    return binCount;
+  }
+
+  public long getCompletedCount() {
+    return completedCount;
+  }
+
+  public int getMakespan() {
+    // From the first task submitted to the last to finish
+    if (completedCount == 0 || lastFinishStep < firstSubmissionStep) {
+      return 0;
+    }
+    return lastFinishStep - firstSubmissionStep;
+  }
+
+  public double[] getTaskSizeBinsAverageMakespans() {
+    // Average time from submission to finish of the tasks in each bin (NaN
+    // for an empty bin)
+    double[] avgTaskMakespanForBin = new double[binCount];
+    for (int binIndex = 0; binIndex < binCount; binIndex++) {
+      avgTaskMakespanForBin[binIndex] = ((double) binTotalMakespans[binIndex] / (double) binTaskCounts[binIndex]);
+    }
+    return avgTaskMakespanForBin;
+  }
+
+  public void writeSnapshot(SnapshotWriter out) throws IOException {
+    out.writeLong(completedCount);
+    out.writeInt(firstSubmissionStep);
+    out.writeInt(lastFinishStep);
+    for (int binIndex = 0; binIndex < binCount; binIndex++) {
+      out.writeLong(binTaskCounts[binIndex]);
+      out.writeLong(binTotalMakespans[binIndex]);
+    }
+  }
+
+  public void readSnapshot(SnapshotReader in) throws IOException {
+    completedCount = in.readLong();
+    firstSubmissionStep = in.readInt();
+    lastFinishStep = in.readInt();
+    for (int binIndex = 0; binIndex < binCount; binIndex++) {
+      binTaskCounts[binIndex] = in.readLong();
+      binTotalMakespans[binIndex] = in.readLong();
+    }
+  }
+
+  private int getBinIndex(int startUnits) {
+    // The first bin whose upper edge the task reaches, bins include their
+    // upper edge. Jump close with a division then settle on the exact bin
+    // with the same comparison as walking the bins one by one would use.
+    if (binWidth == 0.0) {
+      return 0;
+    }
+    int binIndex = (int) Math.ceil((startUnits - smallestTaskUnits) / binWidth) - 1;
+    binIndex = Math.max(0, Math.min(binCount - 1, binIndex));
+    while (binIndex > 0 && ((binIndex * binWidth) + smallestTaskUnits) >= startUnits) {
+      binIndex--;
+    }
+    while (binIndex < binCount - 1 && (((binIndex + 1) * binWidth) + smallestTaskUnits) < startUnits) {
+      binIndex++;
+    }
+    return binIndex;
+  }
+
+  @Override
+  public String toString() {
+    return "TaskMetrics" + Arrays.toString(getTaskSizeBinsAverageMakespans());
+  }
+}
@@ -0,0 +1,190 @@
+package schedulesim;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class TaskQueue extends AbstractList<Task> {
+
+  // First in first out queue of tasks, held as tids in a growable ring
+  // buffer and read back as views of the task table. Adding to the back and
+  // taking from the front are O(1), so draining n tasks is O(n).
+  private static final int INITIAL_CAPACITY = 16;
+
+  private TaskTable table;
+  private int[] tids;
+  private int head;
+  private int size;
+
+  public TaskQueue() {
+    this.table = null;
+    this.tids = new int[INITIAL_CAPACITY];
+    this.head = 0;
+    this.size = 0;
+  }
+
+  TaskQueue fork(TaskTable table) {
+    // The same tasks, read from the forked simulation's table
+    TaskQueue fork = new TaskQueue();
+    fork.table = table;
+    fork.tids = toTidArray(Math.max(INITIAL_CAPACITY, tids.length));
+    fork.size = size;
+    return fork;
+  }
+
+  @Override
+  public boolean add(Task task) {
+    table = task.getTable();
+    if (size == tids.length) {
+      tids = toTidArray(tids.length * 2);
+      head = 0;
+    }
+    tids[(head + size) & (tids.length - 1)] = task.getTid();
+    size++;
+    modCount++;
+    return true;
+  }
+
+  public Task peek() {
+    // The task at the front of the queue, null if there is none
+    if (size == 0) {
+      return null;
+    }
+    return table.getTask(tids[head]);
+  }
+
+  public Task poll() {
+    // Takes the task from the front of the queue, null if there is none
+    if (size == 0) {
+      return null;
+    }
+    int tid = tids[head];
+    head = (head + 1) & (tids.length - 1);
+    size--;
+    modCount++;
+    return table.getTask(tid);
+  }
+
+  @Override
+  public Task get(int index) {
+    return table.getTask(getTid(index));
+  }
+
+  public int getTid(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    return tids[(head + index) & (tids.length - 1)];
+  }
+
+  @Override
+  public Task set(int index, Task task) {
+    Task previous = get(index);
+    table = task.getTable();
+    tids[(head + index) & (tids.length - 1)] = task.getTid();
+    return previous;
+  }
+
+  @Override
+  public Task remove(int index) {
+    // O(1) from the front, otherwise the tasks behind it shuffle forward
+    if (index == 0) {
+      Task task = poll();
+      if (task == null) {
+        throw new IndexOutOfBoundsException("Index: 0, Size: 0");
+      }
+      return task;
+    }
+    Task task = get(index);
+    int mask = tids.length - 1;
+    for (int i = index; i < size - 1; i++) {
+      tids[(head + i) & mask] = tids[(head + i + 1) & mask];
+    }
+    size--;
+    modCount++;
+    return task;
+  }
+
+  @Override
+  protected void removeRange(int fromIndex, int toIndex) {
+    if (fromIndex == 0 && toIndex <= size) {
+      // Dropping tasks from the front just moves the head on
+      head = (head + toIndex) & (tids.length - 1);
+      size -= toIndex;
+      modCount++;
+    } else {
+      super.removeRange(fromIndex, toIndex);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    head = 0;
+    size = 0;
+    modCount++;
+  }
+
+  @Override
+  public void sort(Comparator<? super Task> comparator) {
+    // Stable, like Collections.sort
+    Task[] tasks = toArray(new Task[size]);
+    Arrays.sort(tasks, comparator);
+    for (int i = 0; i < size; i++) {
+      tids[(head + i) & (tids.length - 1)] = tasks[i].getTid();
+    }
+    modCount++;
+  }
+
+  public void sortMinFirst() {
+    // Smallest remaining units first, the same order as sorting with a
+    // TaskMinFirstComparator but without creating a view per task
+    sortByRemainingUnits(false);
+  }
+
+  public void sortMaxFirst() {
+    // Largest remaining units first, as TaskMaxFirstComparator
+    sortByRemainingUnits(true);
+  }
+
+  private void sortByRemainingUnits(boolean largestFirst) {
+    // Each key packs the remaining units above the task's position in the
+    // queue, so ties keep their order (a stable sort) using a primitive sort.
+    long[] keys = new long[size];
+    for (int i = 0; i < size; i++) {
+      int units = table.getRemainingUnits(getTid(i));
+      if (largestFirst) {
+        units = Integer.MAX_VALUE - units;
+      }
+      keys[i] = ((long) units << 32) | i;
+    }
+    Arrays.sort(keys);
+    int[] sorted = new int[tids.length];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = getTid((int) keys[i]);
+    }
+    tids = sorted;
+    head = 0;
+    modCount++;
+  }
+
+  private int[] toTidArray(int capacity) {
+    // The tids in queue order from index 0
+    int[] array = new int[capacity];
+    for (int i = 0; i < size; i++) {
+      array[i] = tids[(head + i) & (tids.length - 1)];
+    }
+    return array;
+  }
+}
@@ -0,0 +1,14 @@
+package schedulesim;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public interface TaskSizeSampler {
+  // Draws the units of one task, any randomness must come from the given
+  // stream so runs can be reproduced
+  int sampleUnits(RandomStream random);
+}
@@ -0,0 +1,242 @@
+package schedulesim;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class TaskTable {
+
+  // The state of every task in a simulation, a column of ints per field
+  // indexed by tid, in place of an object per task. Columns are split into
+  // fixed size chunks so growing never copies what is already there, and so
+  // a fork can share the chunks holding only finished tasks. Tasks that are
+  // no longer needed can be released, a chunk whose tasks have all been
+  // released is dropped so long runs need not hold every task ever made.
+  private static final int CHUNK_BITS = 12;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final SimulationContext context;
+
+  private int[][] startUnits;
+  private int[][] remainingUnits;
+  private int[][] stepSubmitted;
+  private int[][] stepProcessingStarted;
+  private int[][] stepFinished;
+  // Chunks shared with another table, copied before being written to
+  private boolean[] shared;
+  // Tasks not yet released in each chunk, consumers stepping in parallel
+  // release at the same time
+  private AtomicIntegerArray liveCounts;
+  private int chunkCount;
+
+  TaskTable(SimulationContext context) {
+    this.context = context;
+    clear();
+  }
+
+  public int getStartUnits(int tid) {
+    return startUnits[tid >>> CHUNK_BITS][tid & CHUNK_MASK];
+  }
+
+  public int getRemainingUnits(int tid) {
+    return remainingUnits[tid >>> CHUNK_BITS][tid & CHUNK_MASK];
+  }
+
+  public int getStepSubmitted(int tid) {
+    return stepSubmitted[tid >>> CHUNK_BITS][tid & CHUNK_MASK];
+  }
+
+  public int getStepProcessingStarted(int tid) {
+    return stepProcessingStarted[tid >>> CHUNK_BITS][tid & CHUNK_MASK];
+  }
+
+  public int getStepFinished(int tid) {
+    return stepFinished[tid >>> CHUNK_BITS][tid & CHUNK_MASK];
+  }
+
+  public Task getTask(int tid) {
+    return new Task(this, tid);
+  }
+
+  void clear() {
+    // Back to holding no tasks, before a snapshot writes in the tasks it
+    // holds. Tasks set again would otherwise be counted live twice, and
+    // their chunks never released. A fork sharing chunks keeps its own.
+    this.startUnits = new int[1][];
+    this.remainingUnits = new int[1][];
+    this.stepSubmitted = new int[1][];
+    this.stepProcessingStarted = new int[1][];
+    this.stepFinished = new int[1][];
+    this.shared = new boolean[1];
+    this.liveCounts = new AtomicIntegerArray(1);
+    this.chunkCount = 0;
+  }
+
+  int getAllocatedChunkCount() {
+    // Chunks holding tasks that have not all been released
+    int allocated = 0;
+    for (int chunk = 0; chunk < chunkCount; chunk++) {
+      if (startUnits[chunk] != null) {
+        allocated++;
+      }
+    }
+    return allocated;
+  }
+
+  void set(int tid, int startUnits, int remainingUnits, int stepSubmitted,
+           int stepProcessingStarted, int stepFinished) {
+    int chunk = writableChunk(tid);
+    int index = tid & CHUNK_MASK;
+    liveCounts.incrementAndGet(chunk);
+    this.startUnits[chunk][index] = startUnits;
+    this.remainingUnits[chunk][index] = remainingUnits;
+    this.stepSubmitted[chunk][index] = stepSubmitted;
+    this.stepProcessingStarted[chunk][index] = stepProcessingStarted;
+    this.stepFinished[chunk][index] = stepFinished;
+  }
+
+  int decrementUnits(int tid, int units) {
+    int chunk = writableChunk(tid);
+    int index = tid & CHUNK_MASK;
+    if (stepProcessingStarted[chunk][index] == -1) {
+      stepProcessingStarted[chunk][index] = context.getStep();
+    }
+
+    int remaining = remainingUnits[chunk][index];
+    if ((remaining - units) > 0) {
+      // The units from the consumer where completely used up
+      remainingUnits[chunk][index] = remaining - units;
+      return 0;
+    } else {
+      // The units from the consumer were not completed used up, there some process
+      // units left over for another task to use.
+      remainingUnits[chunk][index] = 0;
+      stepFinished[chunk][index] = context.getStep();
+      return units - remaining;
+    }
+  }
+
+  void fastForward(int tid, int units, int stepStarted, int stepFinished) {
+    int chunk = writableChunk(tid);
+    int index = tid & CHUNK_MASK;
+    if (stepProcessingStarted[chunk][index] == -1) {
+      stepProcessingStarted[chunk][index] = stepStarted;
+    }
+    remainingUnits[chunk][index] -= units;
+    if (remainingUnits[chunk][index] == 0) {
+      this.stepFinished[chunk][index] = stepFinished;
+    }
+  }
+
+  void release(int tid) {
+    // The task will not be read again. Dropping a chunk waits until it is
+    // not the last, as new tasks are still being added to that one.
+    int chunk = tid >>> CHUNK_BITS;
+    if (liveCounts.decrementAndGet(chunk) == 0 && chunk < chunkCount - 1) {
+      freeChunk(chunk);
+    }
+  }
+
+  TaskTable fork(SimulationContext context, int firstUnfinishedTid) {
+    // Tasks before the first unfinished one never change again, so the
+    // chunks holding only those are shared. The rest are copied up front,
+    // rather than on first write, so consumers stepping in parallel never
+    // race to copy the same chunk.
+    TaskTable fork = new TaskTable(context);
+    fork.startUnits = Arrays.copyOf(startUnits, startUnits.length);
+    fork.remainingUnits = Arrays.copyOf(remainingUnits, remainingUnits.length);
+    fork.stepSubmitted = Arrays.copyOf(stepSubmitted, stepSubmitted.length);
+    fork.stepProcessingStarted = Arrays.copyOf(stepProcessingStarted, stepProcessingStarted.length);
+    fork.stepFinished = Arrays.copyOf(stepFinished, stepFinished.length);
+    fork.shared = new boolean[shared.length];
+    fork.liveCounts = new AtomicIntegerArray(shared.length);
+    fork.chunkCount = chunkCount;
+    int sharedChunkCount = Math.min(chunkCount, firstUnfinishedTid >>> CHUNK_BITS);
+    for (int chunk = 0; chunk < chunkCount; chunk++) {
+      fork.liveCounts.set(chunk, liveCounts.get(chunk));
+      if (startUnits[chunk] == null) {
+        // Released, nothing to share or copy
+        continue;
+      } else if (chunk < sharedChunkCount) {
+        shared[chunk] = true;
+        fork.shared[chunk] = true;
+      } else {
+        fork.copyChunk(chunk);
+      }
+    }
+    return fork;
+  }
+
+  private int writableChunk(int tid) {
+    int chunk = tid >>> CHUNK_BITS;
+    while (chunk >= chunkCount) {
+      addChunk();
+    }
+    if (startUnits[chunk] == null) {
+      // Released, written to again when restoring a snapshot
+      allocateChunk(chunk);
+    } else if (shared[chunk]) {
+      copyChunk(chunk);
+    }
+    return chunk;
+  }
+
+  private void addChunk() {
+    if (chunkCount == shared.length) {
+      int capacity = shared.length * 2;
+      startUnits = Arrays.copyOf(startUnits, capacity);
+      remainingUnits = Arrays.copyOf(remainingUnits, capacity);
+      stepSubmitted = Arrays.copyOf(stepSubmitted, capacity);
+      stepProcessingStarted = Arrays.copyOf(stepProcessingStarted, capacity);
+      stepFinished = Arrays.copyOf(stepFinished, capacity);
+      shared = Arrays.copyOf(shared, capacity);
+      AtomicIntegerArray grownLiveCounts = new AtomicIntegerArray(capacity);
+      for (int chunk = 0; chunk < chunkCount; chunk++) {
+        grownLiveCounts.set(chunk, liveCounts.get(chunk));
+      }
+      liveCounts = grownLiveCounts;
+    }
+    allocateChunk(chunkCount);
+    chunkCount++;
+    // The chunk that was last may have had all its tasks released already
+    int previous = chunkCount - 2;
+    if (previous >= 0 && startUnits[previous] != null && liveCounts.get(previous) == 0) {
+      freeChunk(previous);
+    }
+  }
+
+  private void allocateChunk(int chunk) {
+    startUnits[chunk] = new int[CHUNK_SIZE];
+    remainingUnits[chunk] = new int[CHUNK_SIZE];
+    stepSubmitted[chunk] = new int[CHUNK_SIZE];
+    stepProcessingStarted[chunk] = new int[CHUNK_SIZE];
+    stepFinished[chunk] = new int[CHUNK_SIZE];
+    shared[chunk] = false;
+  }
+
+  private void freeChunk(int chunk) {
+    // Only this table's reference is dropped, a fork sharing it keeps its own
+    startUnits[chunk] = null;
+    remainingUnits[chunk] = null;
+    stepSubmitted[chunk] = null;
+    stepProcessingStarted[chunk] = null;
+    stepFinished[chunk] = null;
+    shared[chunk] = false;
+  }
+
+  private void copyChunk(int chunk) {
+    startUnits[chunk] = startUnits[chunk].clone();
+    remainingUnits[chunk] = remainingUnits[chunk].clone();
+    stepSubmitted[chunk] = stepSubmitted[chunk].clone();
+    stepProcessingStarted[chunk] = stepProcessingStarted[chunk].clone();
+    stepFinished[chunk] = stepFinished[chunk].clone();
+    shared[chunk] = false;
+  }
+}
@@ -0,0 +1,373 @@
+package schedulesim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class TraceReader implements Closeable {
+
+  // Reads a trace laid out in columns, a file of ints per task field (the
+  // nth int of each is the nth task) alongside a metadata file holding the
+  // task count, the step the run finished on and each consumer's units per
+  // step. The columns are memory mapped rather than read in, so the
+  // operating system pages them in and out as they are scanned and a trace
+  // can be far larger than memory. convert() lays out a TraceWriter trace.
+  public enum Column {
+    SIZE("size.col"),
+    SUBMIT("submit.col"),
+    START("start.col"),
+    FINISH("finish.col"),
+    CONSUMER("consumer.col");
+
+    private final String fileName;
+
+    Column(String fileName) {
+      this.fileName = fileName;
+    }
+
+    public String getFileName() {
+      return fileName;
+    }
+  }
+
+  static final int MAGIC = 0x53434F4C; // "SCOL"
+  static final int VERSION = 1;
+  static final String METADATA_FILE_NAME = "trace.meta";
+  // A mapping can be at most 2GB, so columns are mapped a segment at a time
+  private static final int SEGMENT_BITS = 28;
+  private static final long SEGMENT_INTS = 1L << SEGMENT_BITS;
+  private static final long SEGMENT_MASK = SEGMENT_INTS - 1;
+  private static final int BUFFER_SIZE = 1 << 18;
+  // Turnarounds are selected from a half of their bits at a time
+  private static final int RADIX_BITS = 16;
+  private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+
+  private final long taskCount;
+  private final int lastStep;
+  private final int[] consumerIds;
+  private final int[] consumerUnitsPerStep;
+  private final FileChannel[] channels;
+  private final MappedByteBuffer[][] segments;
+
+  public TraceReader(Path directory) throws IOException {
+    ByteBuffer metadata = ByteBuffer.wrap(Files.readAllBytes(directory.resolve(METADATA_FILE_NAME)));
+    if (metadata.getInt() != MAGIC) {
+      throw new IOException("Not a ScheduleSim columnar trace: " + directory);
+    }
+    int version = metadata.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported columnar trace version " + version + ": " + directory);
+    }
+    taskCount = metadata.getLong();
+    lastStep = metadata.getInt();
+    int consumerCount = metadata.getInt();
+    consumerIds = new int[consumerCount];
+    consumerUnitsPerStep = new int[consumerCount];
+    for (int i = 0; i < consumerCount; i++) {
+      consumerIds[i] = metadata.getInt();
+      consumerUnitsPerStep[i] = metadata.getInt();
+    }
+
+    Column[] columns = Column.values();
+    channels = new FileChannel[columns.length];
+    segments = new MappedByteBuffer[columns.length][];
+    try {
+      for (Column column : columns) {
+        FileChannel channel = FileChannel.open(directory.resolve(column.getFileName()), StandardOpenOption.READ);
+        channels[column.ordinal()] = channel;
+        if (channel.size() != taskCount * Integer.BYTES) {
+          throw new IOException("Column " + column.getFileName() + " does not hold " + taskCount + " tasks");
+        }
+        int segmentCount = (int) ((taskCount + SEGMENT_INTS - 1) >>> SEGMENT_BITS);
+        segments[column.ordinal()] = new MappedByteBuffer[segmentCount];
+        for (int segment = 0; segment < segmentCount; segment++) {
+          long start = (segment * SEGMENT_INTS) * Integer.BYTES;
+          long size = Math.min(SEGMENT_INTS * Integer.BYTES, channel.size() - start);
+          segments[column.ordinal()][segment] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+      }
+    } catch (IOException ioe) {
+      close();
+      throw ioe;
+    }
+  }
+
+  public static void convert(Path trace, Path directory) throws IOException {
+    // Lays out a trace written by TraceWriter as columns in the directory,
+    // streaming through it so it need not fit in memory either
+    Files.createDirectories(directory);
+    Column[] columns = Column.values();
+    FileChannel[] columnChannels = new FileChannel[columns.length];
+    ByteBuffer[] columnBuffers = new ByteBuffer[columns.length];
+    long taskCount = 0;
+    int lastStep = 0;
+    ArrayList<int[]> consumers = new ArrayList<>();
+    try (FileChannel in = FileChannel.open(trace, StandardOpenOption.READ)) {
+      for (Column column : columns) {
+        columnChannels[column.ordinal()] = FileChannel.open(directory.resolve(column.getFileName()),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        columnBuffers[column.ordinal()] = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(3 * Integer.BYTES);
+      while (header.hasRemaining() && in.read(header) >= 0) {
+        // Keep reading until the header is in
+      }
+      header.flip();
+      if (header.remaining() < header.capacity() || header.getInt() != TraceWriter.MAGIC) {
+        throw new IOException("Not a ScheduleSim trace: " + trace);
+      }
+      int version = header.getInt();
+      if (version != TraceWriter.VERSION || header.getInt() != TraceWriter.RECORD_BYTES) {
+        throw new IOException("Unsupported trace version " + version + ": " + trace);
+      }
+
+      // Map the records a window at a time, windows hold whole records
+      long position = header.capacity();
+      long windowBytes = (SEGMENT_INTS * Integer.BYTES) - ((SEGMENT_INTS * Integer.BYTES) % TraceWriter.RECORD_BYTES);
+      while (position < in.size()) {
+        long size = Math.min(windowBytes, in.size() - position);
+        MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, size);
+        while (window.remaining() >= TraceWriter.RECORD_BYTES) {
+          int start = window.position();
+          int recordType = window.getInt();
+          if (recordType == TraceWriter.TASK_RECORD) {
+            window.getInt(); // tid
+            putColumn(Column.SIZE, window.getInt(), columnChannels, columnBuffers);
+            putColumn(Column.SUBMIT, window.getInt(), columnChannels, columnBuffers);
+            putColumn(Column.START, window.getInt(), columnChannels, columnBuffers);
+            int finish = window.getInt();
+            putColumn(Column.FINISH, finish, columnChannels, columnBuffers);
+            putColumn(Column.CONSUMER, window.getInt(), columnChannels, columnBuffers);
+            lastStep = Math.max(lastStep, finish);
+            taskCount++;
+          } else if (recordType == TraceWriter.ENTITY_RECORD) {
+            int id = window.getInt();
+            window.getInt(); // parent id
+            int unitsPerStep = window.getInt();
+            if (unitsPerStep > 0) {
+              consumers.add(new int[]{id, unitsPerStep});
+            }
+          } else if (recordType == TraceWriter.RUN_RECORD) {
+            lastStep = window.getInt();
+          }
+          window.position(start + TraceWriter.RECORD_BYTES);
+        }
+        position += size;
+      }
+
+      for (Column column : columns) {
+        flushColumn(columnChannels[column.ordinal()], columnBuffers[column.ordinal()]);
+      }
+    } finally {
+      for (FileChannel channel : columnChannels) {
+        if (channel != null) {
+          channel.close();
+        }
+      }
+    }
+
+    ByteBuffer metadata = ByteBuffer.allocate((6 * Integer.BYTES) + (consumers.size() * 2 * Integer.BYTES));
+    metadata.putInt(MAGIC);
+    metadata.putInt(VERSION);
+    metadata.putLong(taskCount);
+    metadata.putInt(lastStep);
+    metadata.putInt(consumers.size());
+    for (int[] consumer : consumers) {
+      metadata.putInt(consumer[0]);
+      metadata.putInt(consumer[1]);
+    }
+    Files.write(directory.resolve(METADATA_FILE_NAME), metadata.array());
+  }
+
+  public long getTaskCount() {
+    return taskCount;
+  }
+
+  public int getLastStep() {
+    // The step the run finished on
+    return lastStep;
+  }
+
+  public int getConsumerCount() {
+    return consumerIds.length;
+  }
+
+  public int getConsumerId(int index) {
+    return consumerIds[index];
+  }
+
+  public int getConsumerUnitsPerStep(int index) {
+    return consumerUnitsPerStep[index];
+  }
+
+  public int get(Column column, long index) {
+    if (index < 0 || index >= taskCount) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Task count: " + taskCount);
+    }
+    MappedByteBuffer segment = segments[column.ordinal()][(int) (index >>> SEGMENT_BITS)];
+    return segment.getInt((int) (index & SEGMENT_MASK) * Integer.BYTES);
+  }
+
+  public PrimitiveIterator.OfInt iterator(final Column column) {
+    // Each value of the column in task order, without boxing
+    return new PrimitiveIterator.OfInt() {
+      private long index = 0;
+
+      @Override
+      public boolean hasNext() {
+        return index < taskCount;
+      }
+
+      @Override
+      public int nextInt() {
+        if (index >= taskCount) {
+          throw new NoSuchElementException();
+        }
+        return get(column, index++);
+      }
+    };
+  }
+
+  public int getMakespan() {
+    // From the first task submitted to the last to finish
+    if (taskCount == 0) {
+      return 0;
+    }
+    int firstSubmissionStep = Integer.MAX_VALUE;
+    PrimitiveIterator.OfInt submits = iterator(Column.SUBMIT);
+    while (submits.hasNext()) {
+      firstSubmissionStep = Math.min(firstSubmissionStep, submits.nextInt());
+    }
+    int lastFinishStep = Integer.MIN_VALUE;
+    PrimitiveIterator.OfInt finishes = iterator(Column.FINISH);
+    while (finishes.hasNext()) {
+      lastFinishStep = Math.max(lastFinishStep, finishes.nextInt());
+    }
+    return Math.max(0, lastFinishStep - firstSubmissionStep);
+  }
+
+  public double getUtilisation() {
+    // Units worked over the units the consumers could have worked by the
+    // end of the run, as the architecture's utilisation weights each
+    // consumer's utilisation by its share of the total UPS
+    long totalUPS = 0;
+    for (int unitsPerStep : consumerUnitsPerStep) {
+      totalUPS += unitsPerStep;
+    }
+    long unitsWorked = 0;
+    PrimitiveIterator.OfInt sizes = iterator(Column.SIZE);
+    while (sizes.hasNext()) {
+      unitsWorked += sizes.nextInt();
+    }
+    return ((double) unitsWorked) / ((double) lastStep * totalUPS);
+  }
+
+  public int getTurnaroundPercentile(double percentile) {
+    // Steps from submission to finish that the given percentage of tasks
+    // finish within (nearest rank). Found exactly in two passes with fixed
+    // memory, however long the run: the first counts turnarounds by their
+    // high bits to find the bucket the rank falls in, the second counts the
+    // low bits of the turnarounds in that bucket.
+    if (percentile <= 0.0 || percentile > 100.0) {
+      throw new IllegalArgumentException("Tried to get percentile outside (0, 100]");
+    }
+    if (taskCount == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil((percentile / 100.0) * taskCount));
+    long[] counts = new long[1 << RADIX_BITS];
+    for (long index = 0; index < taskCount; index++) {
+      counts[getTurnaround(index) >>> RADIX_BITS]++;
+    }
+    int high = 0;
+    while (rank > counts[high]) {
+      rank -= counts[high];
+      high++;
+    }
+    Arrays.fill(counts, 0);
+    for (long index = 0; index < taskCount; index++) {
+      int turnaround = getTurnaround(index);
+      if ((turnaround >>> RADIX_BITS) == high) {
+        counts[turnaround & RADIX_MASK]++;
+      }
+    }
+    int low = 0;
+    while (rank > counts[low]) {
+      rank -= counts[low];
+      low++;
+    }
+    return (high << RADIX_BITS) | low;
+  }
+
+  private int getTurnaround(long index) {
+    // Never less than 0 or more than the last step
+    int turnaround = get(Column.FINISH, index) - get(Column.SUBMIT, index);
+    return Math.max(0, Math.min(lastStep, turnaround));
+  }
+
+  public double[] getTaskSizeBinsAverageMakespans(int binCount) {
+    // Binned as the architecture bins its completed tasks, over the range of
+    // task sizes in the trace
+    int smallestTaskUnits = -1;
+    int largestTaskUnits = -1;
+    PrimitiveIterator.OfInt sizes = iterator(Column.SIZE);
+    while (sizes.hasNext()) {
+      int size = sizes.nextInt();
+      if (size < smallestTaskUnits || smallestTaskUnits == -1) {
+        smallestTaskUnits = size;
+      }
+      if (size > largestTaskUnits) {
+        largestTaskUnits = size;
+      }
+    }
+    TaskMetrics metrics = new TaskMetrics(binCount, smallestTaskUnits, largestTaskUnits);
+    for (long index = 0; index < taskCount; index++) {
+      metrics.record(get(Column.SIZE, index), get(Column.SUBMIT, index), get(Column.FINISH, index));
+    }
+    return metrics.getTaskSizeBinsAverageMakespans();
+  }
+
+  @Override
+  public void close() throws IOException {
+    // Mappings stay valid until collected, closing releases the files
+    for (FileChannel channel : channels) {
+      if (channel != null) {
+        channel.close();
+      }
+    }
+  }
+
+  private static void putColumn(Column column, int value, FileChannel[] channels, ByteBuffer[] buffers)
+    throws IOException {
+    ByteBuffer buffer = buffers[column.ordinal()];
+    if (!buffer.hasRemaining()) {
+      flushColumn(channels[column.ordinal()], buffer);
+    }
+    buffer.putInt(value);
+  }
+
+  private static void flushColumn(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,270 @@
+package schedulesim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class TraceWriter implements Closeable {
+
+  // A record of every task completed in a simulation, for analysis after
+  // the run. After a header (magic, version, record size) the file is a
+  // run of fixed width records of RECORD_INTS ints, the first saying which
+  // kind of record it is:
+  //
+  //   TASK_RECORD   tid, start units, step submitted, step processing
+  //                 started, step finished, consumer id, scheduler id
+  //   ENTITY_RECORD entity id, parent id (-1 for none), units per step
+  //                 (0 for anything but a consumer), unused...
+  //   RUN_RECORD    step the run finished on, unused...
+  //
+  // An entity record is written before the first task record that needs
+  // it, for the consumer and every entity above it, so the scheduler path a
+  // task took is found by following parent ids up from its consumer. The
+  // simulator writes records for all of the consumers up front, so idle
+  // ones are in the trace too, and the run record last.
+  //
+  // Each thread completing tasks gathers its task records in a batch of its
+  // own, handed to the writer a batch at a time, so consumers stepped in
+  // parallel do not contend for the writer on every completion. Batches
+  // are drained before the run record, a snapshot or a flush, which the
+  // simulator only does between steps.
+  static final int MAGIC = 0x53545243; // "STRC"
+  static final int VERSION = 1;
+  static final int RECORD_INTS = 8;
+  static final int RECORD_BYTES = RECORD_INTS * Integer.BYTES;
+  static final int TASK_RECORD = 0;
+  static final int ENTITY_RECORD = 1;
+  static final int RUN_RECORD = 2;
+  static final int BUFFER_SIZE = 1 << 20;
+  static final int BATCH_RECORDS = 1024;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  // Entities whose records have been written, by id
+  private final BitSet writtenEntities;
+  // Set once writing fails, the rest of the trace is dropped
+  private boolean failed;
+  // Every thread's batch. The thread running the simulation, which steps
+  // all of the consumers unless they are stepped in parallel, keeps its
+  // batch in a field, any other thread's is found through threadBatch.
+  private final Thread runThread = Thread.currentThread();
+  private final Batch runBatch = new Batch();
+  private final ArrayList<Batch> batches = new ArrayList<>(Collections.singletonList(runBatch));
+  private final ThreadLocal<Batch> threadBatch = new ThreadLocal<>();
+
+  public TraceWriter(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING);
+    buffer = ByteBuffer.allocateDirect(BUFFER_SIZE - (BUFFER_SIZE % RECORD_BYTES));
+    writtenEntities = new BitSet();
+    failed = false;
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(RECORD_BYTES);
+  }
+
+  public TraceWriter(Path path, SnapshotReader in) throws IOException {
+    // Carries on the trace from where a snapshot was taken, records written
+    // after it (by the run that went on past the snapshot) are cut off.
+    long length = in.readLong();
+    int writtenEntityCount = in.readInt();
+    writtenEntities = new BitSet();
+    for (int i = 0; i < writtenEntityCount; i++) {
+      writtenEntities.set(in.readInt());
+    }
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    if (channel.size() < length) {
+      channel.close();
+      throw new IOException("Trace " + path + " is shorter than when the snapshot was taken");
+    }
+    channel.truncate(length);
+    channel.position(length);
+    buffer = ByteBuffer.allocateDirect(BUFFER_SIZE - (BUFFER_SIZE % RECORD_BYTES));
+    failed = false;
+  }
+
+  public void taskCompleted(Consumer consumer, Task task) {
+    // Consumers stepped in parallel complete tasks at the same time, and
+    // each thread's records wait in its batch, so records are in step order
+    // only per thread. Stepped in sequence they are in completion order.
+    Batch batch;
+    if (Thread.currentThread() == runThread) {
+      batch = runBatch;
+    } else {
+      batch = threadBatch.get();
+      if (batch == null) {
+        batch = new Batch();
+        synchronized (this) {
+          batches.add(batch);
+        }
+        threadBatch.set(batch);
+      }
+    }
+    SimEntity scheduler = consumer.getParent();
+    int[] records = batch.records;
+    int offset = batch.size * RECORD_INTS;
+    records[offset] = TASK_RECORD;
+    records[offset + 1] = task.getTid();
+    records[offset + 2] = task.getStartUnits();
+    records[offset + 3] = task.getStepSubmitted();
+    records[offset + 4] = task.getStepProcessingStarted();
+    records[offset + 5] = task.getStepFinished();
+    records[offset + 6] = consumer.getId();
+    records[offset + 7] = scheduler == null ? -1 : scheduler.getId();
+    batch.consumers[batch.size] = consumer;
+    batch.size++;
+    if (batch.size == BATCH_RECORDS) {
+      synchronized (this) {
+        writeBatch(batch);
+      }
+    }
+  }
+
+  public synchronized void writeEntities(Architecture architecture) {
+    if (failed) {
+      return;
+    }
+    try {
+      for (Consumer consumer : architecture.getConsumers()) {
+        writeEntity(consumer);
+      }
+    } catch (IOException ioe) {
+      Log.println("Failed to write trace: " + ioe.getMessage());
+      failed = true;
+    }
+  }
+
+  public synchronized void runFinished(int step) {
+    writeBatches();
+    if (failed) {
+      return;
+    }
+    try {
+      ensureSpace();
+      buffer.putInt(RUN_RECORD);
+      buffer.putInt(step);
+      for (int i = 2; i < RECORD_INTS; i++) {
+        buffer.putInt(0);
+      }
+    } catch (IOException ioe) {
+      Log.println("Failed to write trace: " + ioe.getMessage());
+      failed = true;
+    }
+  }
+
+  public synchronized void flush() throws IOException {
+    writeBatches();
+    writeBuffer();
+  }
+
+  public synchronized void writeSnapshot(SnapshotWriter out) throws IOException {
+    // Flushed first, so the trace on disk is as long as the snapshot says
+    if (!failed) {
+      flush();
+    }
+    out.writeLong(channel.position());
+    out.writeInt(writtenEntities.cardinality());
+    for (int id = writtenEntities.nextSetBit(0); id >= 0; id = writtenEntities.nextSetBit(id + 1)) {
+      out.writeInt(id);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      if (!failed) {
+        flush();
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void writeBatches() {
+    for (Batch batch : batches) {
+      writeBatch(batch);
+    }
+  }
+
+  private void writeBatch(Batch batch) {
+    // The records of the batch's consumers go first, then its task records
+    // are copied over whole, as many as fit in the buffer at a time
+    int size = batch.size;
+    batch.size = 0;
+    if (failed || size == 0) {
+      return;
+    }
+    try {
+      for (int i = 0; i < size; i++) {
+        writeEntity(batch.consumers[i]);
+        batch.consumers[i] = null;
+      }
+      int written = 0;
+      while (written < size) {
+        ensureSpace();
+        int count = Math.min(size - written, buffer.remaining() / RECORD_BYTES);
+        buffer.asIntBuffer().put(batch.records, written * RECORD_INTS, count * RECORD_INTS);
+        buffer.position(buffer.position() + (count * RECORD_BYTES));
+        written += count;
+      }
+    } catch (IOException ioe) {
+      Log.println("Failed to write trace: " + ioe.getMessage());
+      failed = true;
+    }
+  }
+
+  private void writeEntity(SimEntity entity) throws IOException {
+    // The entity and those above it, parents first, each only once
+    SimEntity parent = entity.getParent();
+    if (writtenEntities.get(entity.getId())) {
+      return;
+    }
+    if (parent != null) {
+      writeEntity(parent);
+    }
+    writtenEntities.set(entity.getId());
+    ensureSpace();
+    buffer.putInt(ENTITY_RECORD);
+    buffer.putInt(entity.getId());
+    buffer.putInt(parent == null ? -1 : parent.getId());
+    buffer.putInt(entity instanceof Consumer ? ((Consumer) entity).getUnitsPerStep() : 0);
+    for (int i = 4; i < RECORD_INTS; i++) {
+      buffer.putInt(0);
+    }
+  }
+
+  private void writeBuffer() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private void ensureSpace() throws IOException {
+    // Records are written out a full buffer at a time
+    if (buffer.remaining() < RECORD_BYTES) {
+      writeBuffer();
+    }
+  }
+
+  private static class Batch {
+
+    private final int[] records = new int[BATCH_RECORDS * RECORD_INTS];
+    private final Consumer[] consumers = new Consumer[BATCH_RECORDS];
+    private int size = 0;
+  }
+}
@@ -0,0 +1,28 @@
+package schedulesim;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class UniformTaskSizeSampler implements TaskSizeSampler {
+
+  // Sizes from start (inclusive) to end (exclusive), as RandomPattern draws them
+  private final int start;
+  private final int end;
+
+  public UniformTaskSizeSampler(int start, int end){
+    if(end <= start){
+      throw new IllegalArgumentException("Tried to create task size sampler with end <= start");
+    }
+    this.start = start;
+    this.end = end;
+  }
+
+  @Override
+  public int sampleUnits(RandomStream random) {
+    return random.nextInt(end-start)+start;
+  }
+}
@@ -0,0 +1,42 @@
+package schedulesim;
+
+import java.util.ArrayList;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class Workload {
+
+  // A description of the waves a Producer sends, from which a fresh Producer
+  // can be built for each run.
+  private final String name;
+  private final ArrayList<Integer> steps;
+  private final ArrayList<MetataskPattern> metataskPatterns;
+
+  public Workload(String name) {
+    this.name = name;
+    this.steps = new ArrayList<>();
+    this.metataskPatterns = new ArrayList<>();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void addMetatask(int step, MetataskPattern metataskPattern) {
+    steps.add(step);
+    metataskPatterns.add(metataskPattern);
+  }
+
+  public Producer createProducer() {
+    Producer producer = new Producer(name);
+    for (int i = 0; i < steps.size(); i++) {
+      producer.addMetatask(steps.get(i), metataskPatterns.get(i));
+    }
+    return producer;
+  }
+}
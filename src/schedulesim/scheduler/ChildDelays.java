@@ -0,0 +1,354 @@
+package schedulesim.scheduler;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import schedulesim.ConsumingEntity;
+
+/**
+ * This work is licensed under the Creative Commons Attribution 4.0 International License.
+ * To view a copy of this license, visit http://creativecommons.org/licenses/by/4.0/
+ * or send a letter to Creative Commons, PO Box 1866, Mountain View, CA 94042, USA.
+ * 
+ * @author paul moggridge (paulmogs398@gmail.com)
+ */
+public class ChildDelays {
+
+  // The delays a scheduler has put on its children while it hands out a
+  // wave, and the search for the child that would finish a task first
+  // (least units / units per step + delay, the first child on a tie).
+  //
+  // Children with the same units per step differ only by their delay, so
+  // the best of them is the one with the least delay. Each speed keeps its
+  // children in a treap ordered by delay, and a search is a walk down the
+  // treap of each speed rather than a look at every child. Makespans are
+  // worked out as the schedulers always have, so the choices are exactly
+  // those of a scan. The index only pays when there are many children to
+  // a speed, otherwise a plain scan is used. A scan of at least
+  // parallelThreshold children is split across cores, each part finds its
+  // best child and the first of the parts' best wins a tie, so the choice
+  // is still that of a serial scan.
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 16384;
+  private static final int INDEX_THRESHOLD = 64;
+  // Children there must be to a speed, on average, for the index to be
+  // quicker than a scan (measured, a scan is even at about three)
+  private static final int INDEX_CHILDREN_PER_SPEED = 4;
+  private static final int PARALLEL_GRAIN = 4096;
+  private static final int NONE = -1;
+
+  private final int[] unitsPerStep;
+  private final double[] delays;
+  private final boolean indexed;
+  private final int parallelThreshold;
+
+  // Speed of each group, and each child's group
+  private int groupCount;
+  private int[] groupUnitsPerStep;
+  private int[] groupOf;
+  // Root of each group's treap, the nodes are the children. Priorities
+  // come from the child's index, so the shape does not depend on the run.
+  private int[] groupRoots;
+  private int[] left;
+  private int[] right;
+  private int[] priorities;
+  // The two treaps left by a split
+  private int splitBefore;
+  private int splitAfter;
+
+  private double minMakespan;
+
+  public ChildDelays(List<ConsumingEntity> children) {
+    this(children, DEFAULT_PARALLEL_THRESHOLD);
+  }
+
+  public ChildDelays(List<ConsumingEntity> children, int parallelThreshold) {
+    this(unitsPerStepOf(children), delaysOf(children), parallelThreshold);
+  }
+
+  public ChildDelays(int[] unitsPerStep, double[] delays) {
+    this(unitsPerStep, delays, DEFAULT_PARALLEL_THRESHOLD);
+  }
+
+  public ChildDelays(int[] unitsPerStep, double[] delays, int parallelThreshold) {
+    if (unitsPerStep.length != delays.length) {
+      throw new IllegalArgumentException("Tried to create child delays without a delay per child");
+    }
+    if (parallelThreshold < 1) {
+      throw new IllegalArgumentException("Tried to create child delays with parallel threshold < 1");
+    }
+    this.parallelThreshold = parallelThreshold;
+    this.unitsPerStep = unitsPerStep.clone();
+    this.delays = delays.clone();
+
+    this.indexed = unitsPerStep.length >= INDEX_THRESHOLD
+            && groupBySpeed(unitsPerStep.length / INDEX_CHILDREN_PER_SPEED);
+    if (indexed) {
+      groupRoots = new int[groupCount];
+      left = new int[unitsPerStep.length];
+      right = new int[unitsPerStep.length];
+      priorities = new int[unitsPerStep.length];
+      for (int g = 0; g < groupCount; g++) {
+        groupRoots[g] = NONE;
+      }
+      for (int child = 0; child < unitsPerStep.length; child++) {
+        priorities[child] = mix(child);
+        groupRoots[groupOf[child]] = insert(groupRoots[groupOf[child]], child);
+      }
+    }
+    this.minMakespan = 0.0;
+  }
+
+  public int size() {
+    return delays.length;
+  }
+
+  public double getDelay(int child) {
+    return delays[child];
+  }
+
+  public void setDelay(int child, double delay) {
+    if (indexed) {
+      int group = groupOf[child];
+      groupRoots[group] = remove(groupRoots[group], child);
+      delays[child] = delay;
+      groupRoots[group] = insert(groupRoots[group], child);
+    } else {
+      delays[child] = delay;
+    }
+  }
+
+  public int findMinChild(int units) {
+    // Index of the child that can finish a task of the units first
+    if (indexed) {
+      return findMinChildIndexed(units);
+    }
+    if (delays.length >= parallelThreshold) {
+      return findMinChildParallel(units);
+    }
+    int minChild = findMinChildScan(units, 0, delays.length);
+    minMakespan = (minChild != -1) ? makespan(units, minChild) : 0.0;
+    return minChild;
+  }
+
+  public double getMinMakespan() {
+    // Makespan on the child last found, with its delay
+    return minMakespan;
+  }
+
+  private double makespan(int units, int child) {
+    return ((double) units / (double) unitsPerStep[child]) + delays[child];
+  }
+
+  private int findMinChildScan(int units, int from, int to) {
+    int minChild = -1;
+    double minChildDelay = 0.0;
+    for (int child = from; child < to; child++) {
+      double taskMakespanWithChildDelay = ((double) units / (double) unitsPerStep[child]) + delays[child];
+      if (taskMakespanWithChildDelay < minChildDelay || minChild == -1) {
+        minChild = child;
+        minChildDelay = taskMakespanWithChildDelay;
+      }
+    }
+    return minChild;
+  }
+
+  private int findMinChildParallel(int units) {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int grain = Math.max(PARALLEL_GRAIN, delays.length / (4 * pool.getParallelism()));
+    int minChild = pool.invoke(new FindMinChildTask(units, 0, delays.length, grain));
+    minMakespan = makespan(units, minChild);
+    return minChild;
+  }
+
+  private int findMinChildIndexed(int units) {
+    int minChild = -1;
+    double minChildDelay = 0.0;
+    for (int g = 0; g < groupCount; g++) {
+      double taskMakespan = (double) units / (double) groupUnitsPerStep[g];
+      int groupChild = first(groupRoots[g]);
+      double groupMakespan = taskMakespan + delays[groupChild];
+      // A slightly bigger delay can round to the same makespan, then the
+      // first child of any of them is the one a scan would pick
+      int next = firstAfter(groupRoots[g], delays[groupChild]);
+      while (next != NONE && taskMakespan + delays[next] == groupMakespan) {
+        groupChild = Math.min(groupChild, next);
+        next = firstAfter(groupRoots[g], delays[next]);
+      }
+      if (minChild == -1 || groupMakespan < minChildDelay
+              || (groupMakespan == minChildDelay && groupChild < minChild)) {
+        minChild = groupChild;
+        minChildDelay = groupMakespan;
+      }
+    }
+    minMakespan = minChildDelay;
+    return minChild;
+  }
+
+  private boolean groupBySpeed(int maxGroupCount) {
+    // Numbers the distinct speeds in an open addressed table, giving up as
+    // soon as there are too many for the index to pay
+    int capacity = Integer.highestOneBit(Math.max(1, maxGroupCount)) * 4;
+    int[] speeds = new int[capacity];
+    int[] groupIds = new int[capacity];
+    groupOf = new int[unitsPerStep.length];
+    groupUnitsPerStep = new int[maxGroupCount];
+    groupCount = 0;
+    for (int child = 0; child < unitsPerStep.length; child++) {
+      int speed = unitsPerStep[child];
+      int slot = mix(speed) & (capacity - 1);
+      while (groupIds[slot] != 0 && speeds[slot] != speed) {
+        slot = (slot + 1) & (capacity - 1);
+      }
+      if (groupIds[slot] == 0) {
+        if (groupCount == maxGroupCount) {
+          return false;
+        }
+        speeds[slot] = speed;
+        groupUnitsPerStep[groupCount] = speed;
+        groupCount++;
+        groupIds[slot] = groupCount;
+      }
+      groupOf[child] = groupIds[slot] - 1;
+    }
+    return true;
+  }
+
+  private boolean isBefore(int child, int other) {
+    // Treap order, by delay then index
+    int order = Double.compare(delays[child], delays[other]);
+    return order < 0 || (order == 0 && child < other);
+  }
+
+  private int first(int root) {
+    int node = root;
+    while (left[node] != NONE) {
+      node = left[node];
+    }
+    return node;
+  }
+
+  private int firstAfter(int root, double delay) {
+    // The first child with a bigger delay, NONE if there is none
+    int found = NONE;
+    int node = root;
+    while (node != NONE) {
+      if (Double.compare(delays[node], delay) > 0) {
+        found = node;
+        node = left[node];
+      } else {
+        node = right[node];
+      }
+    }
+    return found;
+  }
+
+  private int insert(int root, int child) {
+    left[child] = NONE;
+    right[child] = NONE;
+    split(root, child);
+    int after = splitAfter;
+    return merge(merge(splitBefore, child), after);
+  }
+
+  private int remove(int root, int child) {
+    if (root == child) {
+      return merge(left[root], right[root]);
+    }
+    if (isBefore(child, root)) {
+      left[root] = remove(left[root], child);
+    } else {
+      right[root] = remove(right[root], child);
+    }
+    return root;
+  }
+
+  private void split(int root, int child) {
+    // Into the nodes before the child and the rest
+    if (root == NONE) {
+      splitBefore = NONE;
+      splitAfter = NONE;
+    } else if (isBefore(root, child)) {
+      split(right[root], child);
+      right[root] = splitBefore;
+      splitBefore = root;
+    } else {
+      split(left[root], child);
+      left[root] = splitAfter;
+      splitAfter = root;
+    }
+  }
+
+  private int merge(int before, int after) {
+    // Every node of before comes before every node of after
+    if (before == NONE) {
+      return after;
+    }
+    if (after == NONE) {
+      return before;
+    }
+    if (priorities[before] > priorities[after]) {
+      right[before] = merge(right[before], after);
+      return before;
+    }
+    left[after] = merge(before, left[after]);
+    return after;
+  }
+
+  private static int mix(int value) {
+    // MurmurHash3 finaliser
+    value ^= value >>> 16;
+    value *= 0x85ebca6b;
+    value ^= value >>> 13;
+    value *= 0xc2b2ae35;
+    value ^= value >>> 16;
+    return value;
+  }
+
+  private static int[] unitsPerStepOf(List<ConsumingEntity> children) {
+    int[] unitsPerStep = new int[children.size()];
+    for (int i = 0; i < unitsPerStep.length; i++) {
+      unitsPerStep[i] = children.get(i).getUnitsPerStep();
+    }
+    return unitsPerStep;
+  }
+
+  private static double[] delaysOf(List<ConsumingEntity> children) {
+    double[] delays = new double[children.size()];
+    for (int i = 0; i < delays.length; i++) {
+      delays[i] = children.get(i).getDelay();
+    }
+    return delays;
+  }
+
+  private class FindMinChildTask extends RecursiveTask<Integer> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int units;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    FindMinChildTask(int units, int from, int to, int grain) {
+      this.units = units;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected Integer compute() {
+      if (to - from <= grain) {
+        return findMinChildScan(units, from, to);
+      }
+      int middle = (from + to) >>> 1;
+      FindMinChildTask first = new FindMinChildTask(units, from, middle, grain);
+      FindMinChildTask second = new FindMinChildTask(units, middle, to, grain);
+      first.fork();
+      int secondMinChild = second.compute();
+      int firstMinChild = first.join();
+      // The second half only wins if strictly better, as in a scan
+      return (makespan(units, secondMinChild) < makespan(units, firstMinChild)) ? secondMinChild : firstMinChild;
+    }
+  }
+}
@@ -2,15 +2,13 @@ package schedulesim.scheduler;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import schedulesim.Consumer;
 import schedulesim.ConsumingEntity;
 import schedulesim.ConsumingEntityMinFirstComparator;
 import schedulesim.Task;
-import schedulesim.TaskMaxFirstComparator;
+import schedulesim.TaskQueue;
 import schedulesim.Log;
 import schedulesim.Scheduler;
-import schedulesim.TaskMinFirstComparator;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0 International License.
@@ -22,6 +20,8 @@ import schedulesim.TaskMinFirstComparator;
 public class MinminMaxminFastTrackScheduler extends Scheduler {
 
   private float margin;
+  // Fan-out at which the search for the best child is split across cores
+  private int parallelScanThreshold;
 
   public MinminMaxminFastTrackScheduler(){
     this(0.4f);
@@ -30,6 +30,20 @@ public class MinminMaxminFastTrackScheduler extends Scheduler {
   public MinminMaxminFastTrackScheduler(float margin){
     super();
     this.margin = margin;
+    this.parallelScanThreshold = ChildDelays.DEFAULT_PARALLEL_THRESHOLD;
+  }
+
+  public int getParallelScanThreshold() {
+    return parallelScanThreshold;
+  }
+
+  public void setParallelScanThreshold(int parallelScanThreshold) {
+    // Children are scored on all cores once there are this many, the
+    // choices are the same as scoring them one at a time
+    if (parallelScanThreshold < 1) {
+      throw new IllegalArgumentException("Tried to set parallel scan threshold < 1");
+    }
+    this.parallelScanThreshold = parallelScanThreshold;
   }
 
   @Override
@@ -37,25 +51,15 @@ public class MinminMaxminFastTrackScheduler extends Scheduler {
     super.step();
     if(super.getChildren().size() > 0 && super.getWaitingTasks().size() > 0){
 
-      // This will store the delays on children below.
-      HashMap<ConsumingEntity, Double> childDelay = new HashMap<>();
-
-      // Find any exsisting delay on child from previous waves
-      for (ConsumingEntity child : super.getChildren()) {
-
-        // Create entry for child
-        childDelay.put(child, child.getDelay());
-      }
-
       // Sort the task max first, smallest tasks first. The task that come first here will
       // be palced in the normal track
-      Collections.sort(super.getWaitingTasks(), new TaskMaxFirstComparator());
+      super.getWaitingTasks().sortMaxFirst();
 
       // Decicde which tasks are small and eligible for fast tracking using margin
       // if fast track margin 0.3, this means the smallest 30% of tasks are fast
       // tracked the rest, 70% are processed on the normal track.
-      ArrayList<Task> normalTrackTasks = new ArrayList<>();
-      ArrayList<Task> fastTrackTasks = new ArrayList<>();
+      TaskQueue normalTrackTasks = new TaskQueue();
+      TaskQueue fastTrackTasks = new TaskQueue();
       int taskUnitsInNormalTrack = 0; // The amount of work in the normal track
       int taskUnitsInFastTrack = 0;  // The amount of work in the fast track
 
@@ -65,11 +69,11 @@ public class MinminMaxminFastTrackScheduler extends Scheduler {
       // Using the sorted task list (biggest length first), put the biggest tasks into the normal track,
       while(super.getWaitingTasks().size() > 0){
         if(normalTrackTasks.size() <= countTasksToNormalTrack){
-          taskUnitsInNormalTrack += super.getWaitingTasks().get(0).getRemaingUnits();
-          normalTrackTasks.add(super.getWaitingTasks().remove(0));
+          taskUnitsInNormalTrack += super.getWaitingTasks().peek().getRemaingUnits();
+          normalTrackTasks.add(super.getWaitingTasks().poll());
         } else {
-          taskUnitsInFastTrack += super.getWaitingTasks().get(0).getRemaingUnits();
-          fastTrackTasks.add(super.getWaitingTasks().remove(0));
+          taskUnitsInFastTrack += super.getWaitingTasks().peek().getRemaingUnits();
+          fastTrackTasks.add(super.getWaitingTasks().poll());
         }
       }
 
@@ -116,32 +120,26 @@ public class MinminMaxminFastTrackScheduler extends Scheduler {
 
       //Minmin tasks onto the Fast Track (rather than Maxmin)
       // Sort the task min first, smallest tasks first
-      Collections.sort(fastTrackTasks, new TaskMinFirstComparator());
+      fastTrackTasks.sortMinFirst();
       
+      // This will store the delays on the children of the track, starting
+      // from any exsisting delay on child from previous waves
+      ChildDelays fastTrackDelays = new ChildDelays(fastTrack, parallelScanThreshold);
+
       while(fastTrackTasks.size()>0){
-        Task task = fastTrackTasks.get(0);
+        Task task = fastTrackTasks.peek();
 
         // Which ConsumingEntity can finish it first? i.e in the min. time,
         // takes into account the UnitPerStep of the ConsumingEntity and tasks
         // already scheduled to it.
-        double minChildDelay = 0.0;
-        ConsumingEntity minChild = null;
-
-        // Which child can complete task first
-        for(ConsumingEntity child : fastTrack){
-          double taskMakespanWithChildDelay = ((double)task.getRemaingUnits() / (double)child.getUnitsPerStep()) + childDelay.get(child);
-          // Can this child finish the task faster
-          if(taskMakespanWithChildDelay < minChildDelay || minChild == null){
-            minChild = child;
-            minChildDelay = taskMakespanWithChildDelay;
-          }
-        }
+        int minChildIndex = fastTrackDelays.findMinChild(task.getRemaingUnits());
+        ConsumingEntity minChild = fastTrack.get(minChildIndex);
 
-        // Update child delays map
-        childDelay.put(minChild, minChildDelay);
+        // Update child delays
+        fastTrackDelays.setDelay(minChildIndex, fastTrackDelays.getMinMakespan());
 
         // Submit task to child
-        minChild.submitTask(fastTrackTasks.remove(0));
+        minChild.submitTask(fastTrackTasks.poll());
         // Update gif, if we are scheduling to a Consumer
         if(minChild instanceof Consumer){
             super.updateGif();
@@ -149,32 +147,26 @@ public class MinminMaxminFastTrackScheduler extends Scheduler {
       }
 
       // MaxMin tasks onto NormalTrack
-      Collections.sort(normalTrackTasks , new TaskMaxFirstComparator());
+      normalTrackTasks.sortMaxFirst();
+
+      // This will store the delays on the children of the track, starting
+      // from any exsisting delay on child from previous waves
+      ChildDelays normalTrackDelays = new ChildDelays(normalTrack, parallelScanThreshold);
 
       while(normalTrackTasks.size()>0){
-        Task task = normalTrackTasks.get(0);
+        Task task = normalTrackTasks.peek();
 
         // Which ConsumingEntity can finish it first? i.e in the min. time,
         // takes into account the UnitPerStep of the ConsumingEntity and tasks
         // already scheduled to it.
-        double minChildDelay = 0.0;
-        ConsumingEntity minChild = null;
-
-        // Which child can complete task first
-        for(ConsumingEntity child : normalTrack){
-          double taskMakespanWithChildDelay = ((double)task.getRemaingUnits() / (double)child.getUnitsPerStep()) + childDelay.get(child);
-          // Can this child finish the task faster
-          if(taskMakespanWithChildDelay < minChildDelay || minChild == null){
-            minChild = child;
-            minChildDelay = taskMakespanWithChildDelay;
-          }
-        }
+        int minChildIndex = normalTrackDelays.findMinChild(task.getRemaingUnits());
+        ConsumingEntity minChild = normalTrack.get(minChildIndex);
 
-        // Update child delays map
-        childDelay.put(minChild, minChildDelay);
+        // Update child delays
+        normalTrackDelays.setDelay(minChildIndex, normalTrackDelays.getMinMakespan());
 
         // Submit task to child
-        minChild.submitTask(normalTrackTasks.remove(0));
+        minChild.submitTask(normalTrackTasks.poll());
         
         // Update gif, if we are scheduling to a Consumer
         if(minChild instanceof Consumer){
@@ -1,11 +1,8 @@
 package schedulesim.scheduler;
 
-import java.util.Collections;
-import java.util.HashMap;
 import schedulesim.Consumer;
 import schedulesim.ConsumingEntity;
 import schedulesim.Task;
-import schedulesim.TaskMinFirstComparator;
 import schedulesim.Scheduler;
 
 /**
@@ -17,51 +14,53 @@ import schedulesim.Scheduler;
  */
 public class MinminScheduler extends Scheduler {
 
+  // Fan-out at which the search for the best child is split across cores
+  private int parallelScanThreshold;
+
   public MinminScheduler(){
     super();
+    this.parallelScanThreshold = ChildDelays.DEFAULT_PARALLEL_THRESHOLD;
+  }
+
+  public int getParallelScanThreshold() {
+    return parallelScanThreshold;
+  }
+
+  public void setParallelScanThreshold(int parallelScanThreshold) {
+    // Children are scored on all cores once there are this many, the
+    // choices are the same as scoring them one at a time
+    if (parallelScanThreshold < 1) {
+      throw new IllegalArgumentException("Tried to set parallel scan threshold < 1");
+    }
+    this.parallelScanThreshold = parallelScanThreshold;
   }
 
   @Override
   public void step() {
     super.step();
-    if(super.getChildren().size()>0){
-
-      // This will store the delays on children below.
-      HashMap<ConsumingEntity, Double> childDelay = new HashMap<>();
+    if(super.getChildren().size() > 0 && super.getWaitingTasks().size() > 0){
 
-      // Find any exsisting delay on child from previous waves
-      for (ConsumingEntity child : super.getChildren()) {
-        // Create entry for child
-        childDelay.put(child, child.getDelay());
-      }
+      // This will store the delays on children below, starting from any
+      // exsisting delay on child from previous waves
+      ChildDelays childDelays = new ChildDelays(super.getChildren(), parallelScanThreshold);
 
       // Sort the task min first, smallest tasks first
-      Collections.sort(super.getWaitingTasks(), new TaskMinFirstComparator());
+      super.getWaitingTasks().sortMinFirst();
 
       while(super.getWaitingTasks().size()>0){
-        Task task = super.getWaitingTasks().get(0);
+        Task task = super.getWaitingTasks().peek();
 
         // Which ConsumingEntity can finish it first? i.e in the min. time,
         // takes into account the UnitPerStep of the ConsumingEntity and tasks
         // already scheduled to it.
-        double minChildDelay = 0.0;
-        ConsumingEntity minChild = null;
-
-        // Which child can complete task first
-        for(ConsumingEntity child : super.getChildren()){
-          double taskMakespanWithChildDelay = ((double)task.getRemaingUnits() / (double)child.getUnitsPerStep()) + childDelay.get(child);
-          // Can this child finish the task faster
-          if(taskMakespanWithChildDelay < minChildDelay || minChild == null){
-            minChild = child;
-            minChildDelay = taskMakespanWithChildDelay;
-          }
-        }
+        int minChildIndex = childDelays.findMinChild(task.getRemaingUnits());
+        ConsumingEntity minChild = super.getChildren().get(minChildIndex);
 
-        // Update child delays map
-        childDelay.put(minChild, minChildDelay);
+        // Update child delays
+        childDelays.setDelay(minChildIndex, childDelays.getMinMakespan());
 
         // Submit task to child
-        minChild.submitTask(super.getWaitingTasks().remove(0));
+        minChild.submitTask(super.getWaitingTasks().poll());
         
         // Update gif, if we are scheduling to a Consumer
         if(minChild instanceof Consumer){
@@ -1,9 +1,9 @@
 package schedulesim.scheduler;
 
-import java.util.Random;
 import schedulesim.Consumer;
 import schedulesim.ConsumingEntity;
 import schedulesim.Log;
+import schedulesim.RandomStream;
 import schedulesim.Scheduler;
 
 /**
@@ -15,20 +15,18 @@ import schedulesim.Scheduler;
  */
 public class RandomScheduler extends Scheduler {
 
-  private Random random;
-
   public RandomScheduler(){
     super();
-    random = new Random();
   }
 
   @Override
   public void step() {
     super.step();
     if (super.getChildren().size() > 0) {
+      RandomStream random = super.getRandom();
       while(super.getWaitingTasks().size() > 0){
         ConsumingEntity child = super.getChildren().get(random.nextInt(super.getChildren().size()));
-        child.submitTask(super.getWaitingTasks().remove(0));
+        child.submitTask(super.getWaitingTasks().poll());
         
         // Update gif, if we are scheduling to a Consumer
         if(child instanceof Consumer){
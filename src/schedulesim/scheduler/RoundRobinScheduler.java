@@ -1,8 +1,11 @@
 package schedulesim.scheduler;
 
+import java.io.IOException;
 import schedulesim.Consumer;
 import schedulesim.ConsumingEntity;
 import schedulesim.Scheduler;
+import schedulesim.SnapshotReader;
+import schedulesim.SnapshotWriter;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0 International License.
@@ -27,13 +30,25 @@ public class RoundRobinScheduler extends Scheduler {
     index = 0;
   }
   
+  @Override
+  public void writeSnapshot(SnapshotWriter out) throws IOException {
+    super.writeSnapshot(out);
+    out.writeInt(index);
+  }
+
+  @Override
+  public void readSnapshot(SnapshotReader in) throws IOException {
+    super.readSnapshot(in);
+    index = in.readInt();
+  }
+
   @Override
   public void step() {
     super.step();
     if (super.getChildren().size() > 0) {
       while(super.getWaitingTasks().size() > 0){
         ConsumingEntity child = super.getChildren().get(index++ % super.getChildren().size());
-        child.submitTask(super.getWaitingTasks().remove(0));
+        child.submitTask(super.getWaitingTasks().poll());
         
         // Update gif, if we are scheduling to a Consumer
         if(child instanceof Consumer){
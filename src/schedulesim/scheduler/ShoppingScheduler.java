@@ -1,8 +1,11 @@
 package schedulesim.scheduler;
 
-import java.util.Random;
+import java.io.IOException;
 import schedulesim.Consumer;
+import schedulesim.RandomStream;
 import schedulesim.Scheduler;
+import schedulesim.SnapshotReader;
+import schedulesim.SnapshotWriter;
 import schedulesim.ConsumingEntity;
 
 /**
@@ -15,7 +18,6 @@ import schedulesim.ConsumingEntity;
 public class ShoppingScheduler extends Scheduler {
 
   private int optionCount;
-  private Random random;
 
   public ShoppingScheduler(){
     this(16);
@@ -24,13 +26,25 @@ public class ShoppingScheduler extends Scheduler {
   public ShoppingScheduler(int optionCount){
     super();
     this.optionCount = optionCount;
-    random = new Random();
+  }
+
+  @Override
+  public void writeSnapshot(SnapshotWriter out) throws IOException {
+    super.writeSnapshot(out);
+    out.writeInt(optionCount);
+  }
+
+  @Override
+  public void readSnapshot(SnapshotReader in) throws IOException {
+    super.readSnapshot(in);
+    optionCount = in.readInt();
   }
 
   @Override
   public void step() {
     super.step();
     if (super.getChildren().size() > 0) {
+      RandomStream random = super.getRandom();
       while(super.getWaitingTasks().size() > 0){
 
         // Make sure there is enough consuming entities
@@ -50,7 +64,7 @@ public class ShoppingScheduler extends Scheduler {
         }
 
         // Assign task to min of randomly selected entities
-        minEntity.submitTask(super.getWaitingTasks().remove(0));
+        minEntity.submitTask(super.getWaitingTasks().poll());
         
         // Update gif, if we are scheduling to a Consumer
         if(minEntity instanceof Consumer){
@@ -1,9 +1,12 @@
 package schedulesim.scheduler;
 
-import java.util.Random;
+import java.io.IOException;
 import schedulesim.Consumer;
 import schedulesim.ConsumingEntity;
+import schedulesim.RandomStream;
 import schedulesim.Scheduler;
+import schedulesim.SnapshotReader;
+import schedulesim.SnapshotWriter;
 
 /**
  * This work is licensed under the Creative Commons Attribution 4.0
@@ -17,12 +20,10 @@ import schedulesim.Scheduler;
 public class WeightedRoundRobinScheduler extends Scheduler {
 
     private int index;
-    private Random random;
 
     public WeightedRoundRobinScheduler() {
         super();
         index = 0;
-        random = new Random();
     }
 
     @Override
@@ -31,6 +32,18 @@ public class WeightedRoundRobinScheduler extends Scheduler {
       index = 0;
     }
     
+    @Override
+    public void writeSnapshot(SnapshotWriter out) throws IOException {
+        super.writeSnapshot(out);
+        out.writeInt(index);
+    }
+
+    @Override
+    public void readSnapshot(SnapshotReader in) throws IOException {
+        super.readSnapshot(in);
+        index = in.readInt();
+    }
+
     @Override
     public void step() {
         super.step();
@@ -44,6 +57,7 @@ public class WeightedRoundRobinScheduler extends Scheduler {
                     fastestChild = child;
                 }
             }
+            RandomStream random = super.getRandom();
             while (super.getWaitingTasks().size() > 0) {
                 // Use round robin to select a child
                 ConsumingEntity child = super.getChildren().get(index++ % super.getChildren().size());
@@ -51,7 +65,7 @@ public class WeightedRoundRobinScheduler extends Scheduler {
                 double wieght = ((double) child.getUnitsPerStep()) / ((double) fastestChild.getUnitsPerStep());
                 // Get a random between 0 - 1 is our number lower than the wieght if so assign task
                 if (random.nextDouble() < wieght) {
-                    child.submitTask(super.getWaitingTasks().remove(0));                    
+                    child.submitTask(super.getWaitingTasks().poll());                    
                     // Update gif, if we are scheduling to a Consumer
                     if(child instanceof Consumer){
                         super.updateGif();